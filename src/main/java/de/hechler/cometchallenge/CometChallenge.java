@@ -12,9 +12,12 @@ import java.util.logging.Logger;
 
 import de.hechler.cometchallenge.analyze.ImageAnalyzer;
 import de.hechler.cometchallenge.analyze.SequenceAnalyzer;
+import de.hechler.cometchallenge.analyze.SequenceWatcher;
 import de.hechler.cometchallenge.gui.CometPathsController;
 import de.hechler.cometchallenge.gui.ImageController;
 import de.hechler.cometchallenge.gui.ShowControlledImages;
+import de.hechler.cometchallenge.track.PathDeduplicator;
+import de.hechler.cometchallenge.track.TrackerMode;
 import de.hechler.cometchallenge.utils.Utils;
 
 public class CometChallenge {
@@ -26,6 +29,9 @@ public class CometChallenge {
 //	public final static String DEFAULT_INPUT_FOLDER = "C:\\DEV\\NASA\\train-sample\\cmt0006";
 	public final static String DEFAULT_INPUT_FOLDER = "C:\\DEV\\NASA\\train-sample\\cmt0009";
 
+	public final static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	public final static TrackerMode DEFAULT_TRACKER_MODE = TrackerMode.GREEDY;
 	
 	private final static Logger logger;
 	static {
@@ -50,12 +56,15 @@ public class CometChallenge {
 	private SequenceAnalyzer analyzer;
 	
 	public void processFolder(Path folder) {
+		processFolder(folder, DEFAULT_TRACKER_MODE);
+	}
+	
+	public void processFolder(Path folder, TrackerMode trackerMode) {
 		
 		analyzer = new SequenceAnalyzer();
-		analyzer.readSequence(folder);
-
-		analyzer.detectCometSpots();
-		List<CometPath> detectedCometPaths = analyzer.detectCometPaths();
+		analyzer.readSequenceAndDetectCometSpots(folder, THREADS);
+		List<CometPath> detectedCometPaths = trackerMode.createTracker().detectCometPaths(analyzer);
+		detectedCometPaths = PathDeduplicator.suppressDuplicates(detectedCometPaths);
 
 		CometPath labeledCometPath = extractLabeledCometPath();
 		detectedCometPaths.add(0, labeledCometPath);
@@ -78,6 +87,21 @@ public class CometChallenge {
 	}
 
 
+	/**
+	 * ingest the frames of folder while they arrive and log the detected paths, runs until interrupted.
+	 * @param folder
+	 */
+	public void watchFolder(Path folder) {
+		SequenceWatcher watcher = new SequenceWatcher(folder, (image, update) -> {
+			logger.info("added "+image.getFilename()+(update.getDetectedImage() == null ? "" : ", "+update.getDetectedImage().getSpots().size()+" spots in "+update.getDetectedImage().getFilename())+", "+update.getActivePaths().size()+" active paths");
+			for (CometPath cometPath:update.getConfirmedPaths()) {
+				logger.info("confirmed: "+cometPath);
+			}
+		});
+		analyzer = watcher.getSequenceAnalyzer();
+		watcher.watch();
+	}
+
 	private void showSpecialImage0009() {
 		int steps = 9;
 		int fromX = 880;
@@ -163,7 +187,15 @@ public class CometChallenge {
 			inputFolder = args[0];
 		}
 		CometChallenge challenge = new CometChallenge();
-		challenge.processFolder(Paths.get(inputFolder));
+		if (args.length > 1 && args[1].equalsIgnoreCase("watch")) {
+			challenge.watchFolder(Paths.get(inputFolder));
+			return;
+		}
+		TrackerMode trackerMode = DEFAULT_TRACKER_MODE;
+		if (args.length > 1) {
+			trackerMode = TrackerMode.valueOf(args[1].toUpperCase());
+		}
+		challenge.processFolder(Paths.get(inputFolder), trackerMode);
 	}
 
 }
@@ -1,8 +1,7 @@
 package de.hechler.cometchallenge;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 
 import de.hechler.cometchallenge.analyze.ImageAnalyzer;
@@ -11,32 +10,127 @@ import de.hechler.cometchallenge.geometry.Pos;
 
 public class CometPath {
 
-	private List<CometPos> cometPositions;
+	/** maximum manhattan distance of a new position from the expected position */
+	public static final double MH_TOLERATED = 5.0;
+
+	private static final double MILLIS_PER_HOUR = 3600000.0;
+
+	/**
+	 * immutable list element, paths created from the same path share their common nodes.
+	 * Each node keeps the running sums of t, x, y relative to the first position (t in hours),
+	 * so the errors and the least squares fit of a path are calculated in O(1).
+	 * sumResidual adds up the squared distances of each position from the position expected
+	 * by the path before it was added, starting with the third position.
+	 */
+	private static class Node {
+		final CometPos cometPos;
+		final Node previous;
+		final CometPos first;
+		final int length;
+		final double t;
+		final double x;
+		final double y;
+		final double sumT;
+		final double sumX;
+		final double sumY;
+		final double sumTT;
+		final double sumTX;
+		final double sumTY;
+		final double sumXX;
+		final double sumYY;
+		final double sumXY;
+		final double sumResidual;
+		public Node(CometPos cometPos, Node previous) {
+			this.cometPos = cometPos;
+			this.previous = previous;
+			if (previous == null) {
+				this.first = cometPos;
+				this.length = 1;
+				this.t = this.x = this.y = 0;
+				this.sumT = this.sumX = this.sumY = 0;
+				this.sumTT = this.sumTX = this.sumTY = 0;
+				this.sumXX = this.sumYY = this.sumXY = 0;
+				this.sumResidual = 0;
+				return;
+			}
+			this.first = previous.first;
+			this.length = previous.length+1;
+			this.t = (cometPos.getTimestamp().getTime()-first.getTimestamp().getTime())/MILLIS_PER_HOUR;
+			this.x = cometPos.getPosition().getX()-first.getPosition().getX();
+			this.y = cometPos.getPosition().getY()-first.getPosition().getY();
+			this.sumT = previous.sumT + t;
+			this.sumX = previous.sumX + x;
+			this.sumY = previous.sumY + y;
+			this.sumTT = previous.sumTT + t*t;
+			this.sumTX = previous.sumTX + t*x;
+			this.sumTY = previous.sumTY + t*y;
+			this.sumXX = previous.sumXX + x*x;
+			this.sumYY = previous.sumYY + y*y;
+			this.sumXY = previous.sumXY + x*y;
+			if (previous.length < 2 || previous.t == 0) {
+				this.sumResidual = previous.sumResidual;
+				return;
+			}
+			// same as getExpectedPos() of the previous path
+			double ex = previous.x*t/previous.t;
+			double ey = previous.y*t/previous.t;
+			this.sumResidual = previous.sumResidual + (x-ex)*(x-ex) + (y-ey)*(y-ey);
+		}
+	}
+
+	private Node last;
+	
+	// positions as array, created on demand
+	private CometPos[] cometPositions;
 	
 	public CometPath(Date timestamp, Pos pos) {
-		cometPositions = new ArrayList<>();
-		cometPositions.add(new CometPos(timestamp, pos));
+		last = new Node(new CometPos(timestamp, pos), null);
 	}
 
+	/**
+	 * copy of other, O(1) as the positions are shared.
+	 * @param other
+	 */
 	public CometPath(CometPath other) {
-		cometPositions = new ArrayList<>(other.cometPositions);
+		last = other.last;
+		cometPositions = other.cometPositions;
+	}
+
+	/**
+	 * position on the line from the first to the last position at the given time, 
+	 * null if the path has only one position.
+	 * @param timestamp
+	 * @return
+	 */
+	public Pos getExpectedPos(Date timestamp) {
+		if (getLength() <= 1) {
+			return null;
+		}
+		// TODO: handle rotation (e.g. comet0001)
+		CometPos firstCP = getFirst();
+		CometPos lastCP = getLast();
+		double DT = lastCP.getTimestamp().getTime()-firstCP.getTimestamp().getTime();
+		double DX = lastCP.getPosition().getX()-firstCP.getPosition().getX();
+		double DY = lastCP.getPosition().getY()-firstCP.getPosition().getY();
+		double dt = timestamp.getTime()-firstCP.getTimestamp().getTime();
+		double dx = DX*dt/DT;
+		double dy = DY*dt/DT;
+		return new Pos(firstCP.getPosition().getX()+dx,firstCP.getPosition().getY()+dy);
 	}
 
+	/**
+	 * extend the path by pos, if pos is at most MH_TOLERATED away from the expected position.
+	 * @param timestamp
+	 * @param pos
+	 * @return the new path or null
+	 */
 	public CometPath createNewIfInRange(Date timestamp, Pos pos) {
-		if (cometPositions.size() > 1) {
-			// TODO: handle rotation (e.g. comet0001)
-			CometPos firstCP = cometPositions.get(0);
-			CometPos lastCP = cometPositions.get(cometPositions.size()-1);
-			double DT = lastCP.getTimestamp().getTime()-firstCP.getTimestamp().getTime();
-			double DX = lastCP.getPosition().getX()-firstCP.getPosition().getX();
-			double DY = lastCP.getPosition().getY()-firstCP.getPosition().getY();
-			double dt = timestamp.getTime()-firstCP.getTimestamp().getTime();
-			double dx = DX*dt/DT;
-			double dy = DY*dt/DT;
-			Pos expectedPos = new Pos(firstCP.getPosition().getX()+dx,firstCP.getPosition().getY()+dy);
+		if (getLength() > 1) {
+			CometPos firstCP = getFirst();
+			Pos expectedPos = getExpectedPos(timestamp);
 			double mhDist = firstCP.getPosition().getManhattenDist(expectedPos);
 			double mhWrong = pos.getManhattenDist(expectedPos);
-			double mhTolerated = 5.0; // Math.min(5, 1+mhDist/2); 
+			double mhTolerated = MH_TOLERATED; // Math.min(5, 1+mhDist/2); 
 			if (mhWrong > mhTolerated) {
 				return null;
 			}
@@ -53,66 +147,169 @@ public class CometPath {
 	
 
 	public void add(Date timestamp, Pos cometPos) {
-		cometPositions.add(new CometPos(timestamp, cometPos));
+		last = new Node(new CometPos(timestamp, cometPos), last);
+		cometPositions = null;
 	}
 	
 	public int getLength() {
-		return cometPositions.size();
+		return last.length;
+	}
+	
+	public CometPos getFirst() {
+		return last.first;
+	}
+	
+	public CometPos getLast() {
+		return last.cometPos;
 	}
 	
 	public CometPos getCometPosition(int i) {
-		return cometPositions.get(i);
+		return getCometPositions()[i];
+	}
+
+	/**
+	 * O(i) without creating the position array, getCometPositionFromEnd(0) is the last position.
+	 * @param i
+	 * @return
+	 */
+	public CometPos getCometPositionFromEnd(int i) {
+		Node node = last;
+		for (int n=0; n<i; n++) {
+			node = node.previous;
+		}
+		return node.cometPos;
 	}
 
+	private CometPos[] getCometPositions() {
+		CometPos[] result = cometPositions;
+		if (result == null) {
+			result = new CometPos[last.length];
+			for (Node node=last; node!=null; node=node.previous) {
+				result[node.length-1] = node.cometPos;
+			}
+			cometPositions = result;
+		}
+		return result;
+	}
+
+	/**
+	 * mean squared distance of the inner positions from the positions expected
+	 * by the line from the first to the last position.
+	 * The second last position is not included, the sum is divided by length-2.
+	 * @return
+	 */
 	public double getDistError() {
-		if (cometPositions.size() <= 2) {
+		int n = getLength();
+		if (n <= 2) {
 			return 0;
 		}
-		CometPos firstCP = cometPositions.get(0);
-		CometPos lastCP = cometPositions.get(cometPositions.size()-1);
-		double DT = lastCP.getTimestamp().getTime() - firstCP.getTimestamp().getTime();
-		double DX = lastCP.getPosition().getX() - firstCP.getPosition().getX();
-		double DY = lastCP.getPosition().getY() - firstCP.getPosition().getY();
-		double result = 0;
-		for (int i=1; i<cometPositions.size()-2; i++) {
-			CometPos testCP = cometPositions.get(i);
-			double dt = testCP.getTimestamp().getTime() - firstCP.getTimestamp().getTime();
-			double dx = DX*dt/DT;
-			double dy = DY*dt/DT;
-			Pos expectedPos = new Pos(firstCP.getPosition().getX()+dx, firstCP.getPosition().getY()+dy);
-			result += expectedPos.getSQDist(testCP.getPosition());
+		Node inner = last.previous.previous;
+		double s = 1.0/last.t;
+		double DX = last.x;
+		double DY = last.y;
+		// sum of (D*t/DT - p)^2 over the inner positions
+		double result = (DX*DX+DY*DY)*s*s*inner.sumTT - 2*s*(DX*inner.sumTX+DY*inner.sumTY) + inner.sumXX+inner.sumYY;
+		return Math.max(0.0, result)/(n-2);
+	}
+
+	/**
+	 * mean squared distance of the positions from the position expected when they were added,
+	 * the line from the first to the then last position. Available from the third position on,
+	 * the sum is divided by length-2.
+	 * @return
+	 */
+	public double getExtensionError() {
+		int n = getLength();
+		if (n <= 2) {
+			return 0;
 		}
-		return result/(cometPositions.size()-2);
+		return last.sumResidual/(n-2);
 	}
 
+	/**
+	 * mean squared distance of the inner positions from the line through the first and the last position.
+	 * The second last position is not included, the sum is divided by length-2.
+	 * @return
+	 */
 	public double getLineError() {
-		if (cometPositions.size() <= 2) {
+		int n = getLength();
+		if (n <= 2) {
 			return 0;
 		}
-		CometPos firstCP = cometPositions.get(0);
-		CometPos lastCP = cometPositions.get(cometPositions.size()-1);
-		double DT = lastCP.getTimestamp().getTime() - firstCP.getTimestamp().getTime();
-		double DX = lastCP.getPosition().getX() - firstCP.getPosition().getX();
-		double DY = lastCP.getPosition().getY() - firstCP.getPosition().getY();
-		double result = 0;
-		for (int i=1; i<cometPositions.size()-2; i++) {
-			CometPos testCP = cometPositions.get(i);
-			result += testCP.getPosition().getSQDistFromLine(firstCP.getPosition(), lastCP.getPosition());
+		Node inner = last.previous.previous;
+		double DX = last.x;
+		double DY = last.y;
+		double denominatorSQ = DX*DX+DY*DY;
+		if (denominatorSQ == 0) {
+			return (inner.sumXX+inner.sumYY)/(n-2);
+		}
+		// sum of (x*DY - y*DX)^2 / |D|^2 over the inner positions
+		double result = (inner.sumXX*DY*DY - 2*inner.sumXY*DX*DY + inner.sumYY*DX*DX)/denominatorSQ;
+		return Math.max(0.0, result)/(n-2);
+	}
+
+	/**
+	 * least squares fit x(t) = x0 + vx*t, y(t) = y0 + vy*t over all positions.
+	 * @return {vx, vy} in px/hour, or null for a single position
+	 */
+	public double[] getFittedVelocity() {
+		int n = getLength();
+		double denominator = n*last.sumTT - last.sumT*last.sumT;
+		if (n <= 1 || denominator == 0) {
+			return null;
+		}
+		double vx = (n*last.sumTX - last.sumT*last.sumX)/denominator;
+		double vy = (n*last.sumTY - last.sumT*last.sumY)/denominator;
+		return new double[] { vx, vy };
+	}
+
+	/**
+	 * position at timestamp following the least squares fit.
+	 * @param timestamp
+	 * @return the position or null for a single position
+	 */
+	public Pos getFittedPos(Date timestamp) {
+		double[] velocity = getFittedVelocity();
+		if (velocity == null) {
+			return null;
+		}
+		int n = getLength();
+		double t = (timestamp.getTime()-getFirst().getTimestamp().getTime())/MILLIS_PER_HOUR;
+		double x0 = (last.sumX - velocity[0]*last.sumT)/n;
+		double y0 = (last.sumY - velocity[1]*last.sumT)/n;
+		Pos firstPos = getFirst().getPosition();
+		return new Pos(firstPos.getX()+x0+velocity[0]*t, firstPos.getY()+y0+velocity[1]*t);
+	}
+
+	/**
+	 * mean squared distance of all positions from the least squares fit.
+	 * @return
+	 */
+	public double getFitError() {
+		double[] velocity = getFittedVelocity();
+		if (velocity == null) {
+			return 0;
 		}
-		return result/(cometPositions.size()-2);
+		int n = getLength();
+		double x0 = (last.sumX - velocity[0]*last.sumT)/n;
+		double y0 = (last.sumY - velocity[1]*last.sumT)/n;
+		// residual sum of squares: sum(x^2) - x0*sum(x) - vx*sum(t*x)
+		double ssX = last.sumXX - x0*last.sumX - velocity[0]*last.sumTX;
+		double ssY = last.sumYY - y0*last.sumY - velocity[1]*last.sumTY;
+		return Math.max(0.0, ssX+ssY)/n;
 	}
 
 	
 	@Override
 	public String toString() {
-		return cometPositions.toString();
+		return Arrays.asList(getCometPositions()).toString();
 	}
 
 	public String toSubmissionText(SequenceAnalyzer analyzer) {
 		StringBuilder result = new StringBuilder();
 		String folderName = analyzer.getImageAnalyzer(0).getPath().getParent().getFileName().toString();
 		result.append(folderName);
-		for (CometPos cometPos:cometPositions) {
+		for (CometPos cometPos:getCometPositions()) {
 			ImageAnalyzer ia = analyzer.getImageAnalyzerForTimestamp(cometPos.getTimestamp());
 			String xStr = String.format(Locale.ROOT, "%.2f", cometPos.getPosition().getX());
 			String yStr = String.format(Locale.ROOT, "%.2f", cometPos.getPosition().getY());
@@ -0,0 +1,117 @@
+package de.hechler.cometchallenge;
+
+/**
+ * statistic of 16 bit values with a histogram of 65536 bins.
+ * Updates are O(1), quantiles O(bins), two histograms (e.g. from different threads) are merged with update(other).
+ * Quantiles are exact for int values, double values are binned to 1/scale.
+ */
+public class HistogramStat {
+
+	public static final int BINS = 0x10000;
+
+	private double scale;
+	private int[] counts;
+	private long count;
+	private long total;
+	private long sqTotal;
+	private int min;
+	private int max;
+
+	public HistogramStat() {
+		this(1.0);
+	}
+
+	/**
+	 * @param scale double values are stored in bin round(value*scale)
+	 */
+	public HistogramStat(double scale) {
+		this.scale = scale;
+		this.counts = new int[BINS];
+		this.min = BINS;
+		this.max = -1;
+	}
+
+	/**
+	 * @param value 0..65535, others are clipped
+	 * @return
+	 */
+	public HistogramStat update(int value) {
+		int bin = Math.max(0, Math.min(BINS-1, value));
+		counts[bin]++;
+		count++;
+		total += bin;
+		sqTotal += (long)bin*bin;
+		if (bin < min) { min = bin; }
+		if (bin > max) { max = bin; }
+		return this;
+	}
+
+	public HistogramStat update(double value) {
+		return update((int)Math.round(value*scale));
+	}
+
+	public HistogramStat update(HistogramStat other) {
+		if (other.scale != scale) {
+			throw new RuntimeException("different scales "+scale+" and "+other.scale);
+		}
+		for (int bin=other.min; bin<=other.max; bin++) {
+			counts[bin] += other.counts[bin];
+		}
+		count += other.count;
+		total += other.total;
+		sqTotal += other.sqTotal;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		return this;
+	}
+
+	/**
+	 * the value at index (long)(0.01*percent*(count-1)) of the sorted values, like MinMaxStat.getQuantil().
+	 * @param percent
+	 * @return
+	 */
+	public double getQuantil(double percent) {
+		if (count == 0) {
+			throw new IndexOutOfBoundsException("no values");
+		}
+		long idx = (long)(0.01*percent*(count-1));
+		long cumulated = 0;
+		for (int bin=min; bin<max; bin++) {
+			cumulated += counts[bin];
+			if (cumulated > idx) {
+				return bin/scale;
+			}
+		}
+		return max/scale;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMin() {
+		return min/scale;
+	}
+
+	public double getMax() {
+		return max/scale;
+	}
+
+	public double getAvg() {
+		return count == 0 ? 0.0 : total/scale/count;
+	}
+
+	public double getSigma() {
+		if (count == 0) {
+			return 0.0;
+		}
+		double mean = (double)total/count;
+		double variance = (double)sqTotal/count - mean*mean;
+		return Math.sqrt(Math.max(0.0, variance))/scale;
+	}
+
+	@Override public String toString() {
+		return "[min="+getMin()+",max="+getMax()+",avg="+getAvg()+",sigma="+getSigma()+",cnt="+count+"]";
+	}
+
+}
@@ -1,17 +1,25 @@
 package de.hechler.cometchallenge;
 
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+
+/**
+ * min, max, count and total of int values.
+ * update(MinMaxCounter) is associative, so partial counters can be combined in any grouping,
+ * the collectors and of(IntStream) give the same result for parallel and sequential streams.
+ */
 public class MinMaxCounter {
 
 	private int min;
 	private int max;
 	private int count;
-	private int total;
+	private long total;
 
 	public MinMaxCounter() {
 		this(Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 0);
 	}
 
-	public MinMaxCounter(int min, int max, int count, int total) {
+	public MinMaxCounter(int min, int max, int count, long total) {
 		this.min = min;
 		this.max = max;
 		this.count = count;
@@ -46,7 +54,7 @@ public class MinMaxCounter {
 		return max;
 	}
 
-	public int getTotal() {
+	public long getTotal() {
 		return total;
 	}
 
@@ -55,13 +63,38 @@ public class MinMaxCounter {
 	}
 
 	public int getAvg() {
-		return count == 0 ? 0 : total / count;
+		return count == 0 ? 0 : (int)(total / count);
 	}
 	
 	public double getDAvg() {
 		return count == 0 ? 0.0 : ((double)total)/count;
 	}
 	
+	/**
+	 * collector for int values, e.g. stream.collect(MinMaxCounter.collector()).
+	 * @return
+	 */
+	public static Collector<Integer, MinMaxCounter, MinMaxCounter> collector() {
+		return Collector.of(MinMaxCounter::new, MinMaxCounter::update, MinMaxCounter::update, Collector.Characteristics.IDENTITY_FINISH);
+	}
+
+	/**
+	 * collector combining counters, e.g. of several regions or frames.
+	 * @return
+	 */
+	public static Collector<MinMaxCounter, MinMaxCounter, MinMaxCounter> merging() {
+		return Collector.of(MinMaxCounter::new, MinMaxCounter::update, MinMaxCounter::update, Collector.Characteristics.IDENTITY_FINISH);
+	}
+
+	/**
+	 * reduce an IntStream without boxing, one counter per worker.
+	 * @param values
+	 * @return
+	 */
+	public static MinMaxCounter of(IntStream values) {
+		return values.collect(MinMaxCounter::new, MinMaxCounter::update, MinMaxCounter::update);
+	}
+
 	@Override public String toString() { 
 		return "[min="+min+",max="+max+",avg="+getAvg()+",cnt="+count+"]"; 
 	}
@@ -1,60 +1,238 @@
 package de.hechler.cometchallenge;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.stream.Collector;
+import java.util.stream.DoubleStream;
 
+/**
+ * min, max, mean, sigma and quantiles of a series of values.
+ * Mean and variance are updated with Welford's method, two stats are merged with the
+ * formula of Chan et al., so the moments are O(1) per update and merge.
+ * The values are kept in a growable double[] for exact quantiles (quickselect).
+ * A stat created with createStreaming() keeps no values, the requested quantiles
+ * are estimated with the P-square algorithm instead.
+ * The collectors and of(DoubleStream) can run on parallel streams, min, max, count and the quantiles
+ * are the same as for a sequential stream, the moments are equal up to rounding.
+ */
 public class MinMaxStat {
 
+	private static final int INITIAL_CAPACITY = 16;
+
 	private double min;
 	private double max;
-	private List<Double> values;
-	private boolean sorted;
 	private double total;
+	private int count;
+	private double mean;
+	private double m2;
+
+	/** null for streaming stats */
+	private double[] values;
+	private boolean sorted;
+	/** number of quantile selections since the last update, the values are sorted from the second one */
+	private int selections;
+
+	/** only for streaming stats */
+	private P2Quantile[] estimators;
 
 	public MinMaxStat() {
-		this(Integer.MAX_VALUE, Integer.MIN_VALUE, new ArrayList<>(), 0);
+		this.min = Integer.MAX_VALUE;
+		this.max = Integer.MIN_VALUE;
+		this.values = new double[INITIAL_CAPACITY];
 	}
 
-	public MinMaxStat(double min, double max, List<Double> values, double total) {
-		this.min = min;
-		this.max = max;
-		this.values = values;
-		this.total = total;
-		this.sorted = false;
+	public MinMaxStat(MinMaxStat other) {
+		this.min = other.min;
+		this.max = other.max;
+		this.total = other.total;
+		this.count = other.count;
+		this.mean = other.mean;
+		this.m2 = other.m2;
+		this.values = other.values == null ? null : Arrays.copyOf(other.values, Math.max(INITIAL_CAPACITY, other.count));
+		this.sorted = other.sorted;
+		if (other.estimators != null) {
+			this.estimators = new P2Quantile[other.estimators.length];
+			for (int i=0; i<estimators.length; i++) {
+				estimators[i] = new P2Quantile(other.estimators[i]);
+			}
+		}
 	}
 
-	public MinMaxStat(MinMaxStat other) {
-		this(other.min, other.max, other.values, other.total);
+	/**
+	 * stat without stored values, getQuantil() is only available for the given percents and is an estimate.
+	 * @param percents
+	 * @return
+	 */
+	public static MinMaxStat createStreaming(double... percents) {
+		MinMaxStat result = new MinMaxStat();
+		result.values = null;
+		result.estimators = new P2Quantile[percents.length];
+		for (int i=0; i<percents.length; i++) {
+			result.estimators[i] = new P2Quantile(percents[i]);
+		}
+		return result;
 	}
 
 	public MinMaxStat update(double value) {
 		min = Math.min(min, value);
 		max = Math.max(max, value);
-		values.add(value);
 		total += value;
-		sorted = false;
+		count++;
+		double delta = value-mean;
+		mean += delta/count;
+		m2 += delta*(value-mean);
+		if (values != null) {
+			if (count > values.length) {
+				values = Arrays.copyOf(values, 2*values.length);
+			}
+			values[count-1] = value;
+			sorted = false;
+			selections = 0;
+		}
+		else {
+			for (P2Quantile estimator:estimators) {
+				estimator.add(value);
+			}
+		}
 		return this;
 	}
 
+	/**
+	 * add all values of other. The moments are merged in O(1), the stored values are appended.
+	 * A streaming stat can take the values of a non streaming stat, estimates can not be merged.
+	 * @param other
+	 * @return
+	 */
 	public MinMaxStat update(MinMaxStat other) {
+		if (other.count == 0) {
+			return this;
+		}
+		if (other.values == null) {
+			throw new RuntimeException("quantil estimates can not be merged");
+		}
+		if (values != null) {
+			if (count+other.count > values.length) {
+				values = Arrays.copyOf(values, Math.max(2*values.length, count+other.count));
+			}
+			System.arraycopy(other.values, 0, values, count, other.count);
+			sorted = false;
+			selections = 0;
+		}
+		else {
+			for (P2Quantile estimator:estimators) {
+				for (int i=0; i<other.count; i++) {
+					estimator.add(other.values[i]);
+				}
+			}
+		}
 		min = Math.min(min, other.min);
 		max = Math.max(max, other.max);
-		values.addAll(other.values);
 		total += other.total;
-		sorted = false;
+		int n = count+other.count;
+		double delta = other.mean-mean;
+		mean += delta*other.count/n;
+		m2 += other.m2 + delta*delta*count*other.count/n;
+		count = n;
 		return this;
 	}
-	
+
+	/**
+	 * collector for double values, e.g. stream.collect(MinMaxStat.collector()).
+	 * @return
+	 */
+	public static Collector<Double, MinMaxStat, MinMaxStat> collector() {
+		return Collector.of(MinMaxStat::new, MinMaxStat::update, MinMaxStat::update, Collector.Characteristics.IDENTITY_FINISH);
+	}
+
+	/**
+	 * collector combining stats with stored values, e.g. of several regions or frames.
+	 * @return
+	 */
+	public static Collector<MinMaxStat, MinMaxStat, MinMaxStat> merging() {
+		return Collector.of(MinMaxStat::new, MinMaxStat::update, MinMaxStat::update, Collector.Characteristics.IDENTITY_FINISH);
+	}
+
+	/**
+	 * reduce a DoubleStream without boxing, one stat per worker.
+	 * @param values
+	 * @return
+	 */
+	public static MinMaxStat of(DoubleStream values) {
+		return values.collect(MinMaxStat::new, MinMaxStat::update, MinMaxStat::update);
+	}
+
+	/**
+	 * the value at index (int)(0.01*percent*(count-1)) of the sorted values.
+	 * @param percent
+	 * @return
+	 */
 	public double getQuantil(double percent) {
+		if (values == null) {
+			for (P2Quantile estimator:estimators) {
+				if (estimator.percent == percent) {
+					return estimator.getQuantil();
+				}
+			}
+			throw new RuntimeException("quantil "+percent+" is not estimated");
+		}
+		if (count == 0) {
+			throw new IndexOutOfBoundsException("no values");
+		}
+		int idx = (int)(0.01*percent*(count-1));
 		if (!sorted) {
-			Collections.sort(values);
+			selections++;
+			if (selections == 1) {
+				return select(values, count, idx);
+			}
+			// repeated queries on the same values
+			Arrays.sort(values, 0, count);
 			sorted = true;
 		}
-		int idx = (int)(0.01*percent*(values.size()-1));
-		return values.get(idx);
+		return values[idx];
 	}
-	
+
+	/**
+	 * quickselect, reorders a[0..n-1] so that a[k] is the k-th smallest value.
+	 */
+	private static double select(double[] a, int n, int k) {
+		int left = 0;
+		int right = n-1;
+		while (left < right) {
+			// median of three as pivot
+			int mid = (left+right) >>> 1;
+			if (a[mid] < a[left]) { swap(a, mid, left); }
+			if (a[right] < a[left]) { swap(a, right, left); }
+			if (a[right] < a[mid]) { swap(a, right, mid); }
+			double pivot = a[mid];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (a[i] < pivot) { i++; }
+				while (a[j] > pivot) { j--; }
+				if (i <= j) {
+					swap(a, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			}
+			else if (k >= i) {
+				left = i;
+			}
+			else {
+				break;
+			}
+		}
+		return a[k];
+	}
+
+	private static void swap(double[] a, int i, int j) {
+		double tmp = a[i];
+		a[i] = a[j];
+		a[j] = tmp;
+	}
+
 	public double getMin() {
 		return min;
 	}
@@ -68,41 +246,139 @@ public class MinMaxStat {
 	}
 
 	public double getCount() {
-		return values.size();
+		return count;
 	}
 
 	public double getAvg() {
-		return values.isEmpty() ? 0.0 : total / values.size();
+		return count == 0 ? 0.0 : total / count;
 	}
-	
+
 	public double getSQErr() {
-		double avg = getAvg();
-		double sqErr = 0;
-		for (double value:values) {
-			sqErr += (value-avg)*(value-avg);
-		}
-		return sqErr;
+		return m2;
 	}
-	
+
 	public double getErr() {
 		return Math.sqrt(getSQErr());
 	}
-	
+
 	public double getSQSigma() {
-		return getSQErr() / values.size();
+		return getSQErr() / count;
 	}
-	
+
 	public double getSigma() {
 		return Math.sqrt(getSQSigma());
 	}
-	
+
 	public double getStdErr() {
 		return getErr()/getCount();
 	}
-	
-	@Override public String toString() { 
-		return "[min="+min+",max="+max+",avg="+getAvg()+",sigma="+getSigma()+",cnt="+getCount()+"]"; 
+
+	@Override public String toString() {
+		return "[min="+min+",max="+max+",avg="+getAvg()+",sigma="+getSigma()+",cnt="+getCount()+"]";
+	}
+
+	/**
+	 * P-square estimator (Jain, Chlamtac) for one quantile with five markers.
+	 * Up to five values the quantile is exact, with the same index as getQuantil().
+	 */
+	private static class P2Quantile {
+		final double percent;
+		private double p;
+		private int count;
+		private double[] q = new double[5];
+		private double[] n = new double[5];
+		private double[] desired = new double[5];
+		private double[] increment = new double[5];
+
+		public P2Quantile(double percent) {
+			this.percent = percent;
+			this.p = 0.01*percent;
+			increment[0] = 0;
+			increment[1] = p/2;
+			increment[2] = p;
+			increment[3] = (1+p)/2;
+			increment[4] = 1;
+		}
+
+		public P2Quantile(P2Quantile other) {
+			this.percent = other.percent;
+			this.p = other.p;
+			this.count = other.count;
+			this.q = other.q.clone();
+			this.n = other.n.clone();
+			this.desired = other.desired.clone();
+			this.increment = other.increment.clone();
+		}
+
+		public void add(double x) {
+			if (count < 5) {
+				q[count++] = x;
+				if (count == 5) {
+					Arrays.sort(q);
+					for (int i=0; i<5; i++) {
+						n[i] = i;
+					}
+					desired[0] = 0;
+					desired[1] = 2*p;
+					desired[2] = 4*p;
+					desired[3] = 2+2*p;
+					desired[4] = 4;
+				}
+				return;
+			}
+			count++;
+			int k;
+			if (x < q[0]) {
+				q[0] = x;
+				k = 0;
+			}
+			else if (x >= q[4]) {
+				q[4] = x;
+				k = 3;
+			}
+			else {
+				k = 0;
+				while (x >= q[k+1]) {
+					k++;
+				}
+			}
+			for (int i=k+1; i<5; i++) {
+				n[i]++;
+			}
+			for (int i=0; i<5; i++) {
+				desired[i] += increment[i];
+			}
+			for (int i=1; i<4; i++) {
+				double d = desired[i]-n[i];
+				if ((d >= 1 && n[i+1]-n[i] > 1) || (d <= -1 && n[i-1]-n[i] < -1)) {
+					int s = d > 0 ? 1 : -1;
+					double qp = parabolic(i, s);
+					if (q[i-1] < qp && qp < q[i+1]) {
+						q[i] = qp;
+					}
+					else {
+						q[i] = q[i] + s*(q[i+s]-q[i])/(n[i+s]-n[i]);
+					}
+					n[i] += s;
+				}
+			}
+		}
+
+		private double parabolic(int i, int s) {
+			return q[i] + s/(n[i+1]-n[i-1]) * ((n[i]-n[i-1]+s)*(q[i+1]-q[i])/(n[i+1]-n[i]) + (n[i+1]-n[i]-s)*(q[i]-q[i-1])/(n[i]-n[i-1]));
+		}
+
+		public double getQuantil() {
+			if (count == 0) {
+				throw new IndexOutOfBoundsException("no values");
+			}
+			if (count < 5) {
+				double[] initial = Arrays.copyOf(q, count);
+				Arrays.sort(initial);
+				return initial[(int)(p*(count-1))];
+			}
+			return q[2];
+		}
 	}
 
-	
 }
@@ -2,16 +2,28 @@ package de.hechler.cometchallenge.analyze;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
+import de.hechler.cometchallenge.HistogramStat;
 import de.hechler.cometchallenge.MinMaxCounter;
 import de.hechler.cometchallenge.MinMaxStat;
+import de.hechler.cometchallenge.fits.FitsHeader;
 import de.hechler.cometchallenge.geometry.Pos;
+import de.hechler.cometchallenge.image.GrayFrame;
+import de.hechler.cometchallenge.image.IntegralImage;
+import de.hechler.cometchallenge.image.LocalSigmaFilter;
+import de.hechler.cometchallenge.image.SlidingWindowFilter;
 
 public class ImageAnalyzer {
 
@@ -20,29 +32,38 @@ public class ImageAnalyzer {
 	private Pos labeledCometPos;
 	private Double vmag;
 	
-	private int[][] matrix;
+	private GrayFrame frame;
 	private int width;
 	private int height;
 	
-	private Properties fitsProperties;
+	private FitsHeader header;
 	private double expTime;   // exposure time, normalize by dividing all pixel values by expTime. 
+	private PlanePolicy planePolicy;
 	
 	// calculated data
 	private List<Pos> spots;
+	private volatile float[] cometScores;
+	private volatile IntegralImage integralImage;
+	private float[] localSigmas;
+	private int localSigmaRadius;
+	private float[] normalizedPixels;
+	private SoftReference<float[]> softNormalizedPixels;
+	private Path spilledNormalizedPixels;
 
 	private Map<String, Object> data;
 	
 	
-	public ImageAnalyzer(Path path, Date timestamp, Pos labeledCometPos, Double vmag, int[][] matrix, Properties fitsProperties) {
+	public ImageAnalyzer(Path path, Date timestamp, Pos labeledCometPos, Double vmag, GrayFrame frame, FitsHeader header) {
 		this.path = path;
 		this.timestamp = timestamp;
 		this.labeledCometPos = labeledCometPos;
 		this.vmag = vmag;
-		this.matrix = matrix;
-		this.height = matrix.length;
-		this.width = matrix[0].length;
-		this.fitsProperties = fitsProperties;
-		this.expTime = Double.parseDouble(((String)fitsProperties.get("Info")).replace("\r", " ").replace("\n", " ").replaceFirst(".*EXPTIME\\s*=([^/]*)/.*", "$1").trim());
+		this.frame = frame;
+		this.height = frame.getHeight();
+		this.width = frame.getWidth();
+		this.header = header;
+		this.expTime = header.getDouble("EXPTIME");
+		this.planePolicy = PlanePolicy.RECOMPUTE;
 		this.data = new HashMap<>();
 	}
 
@@ -51,20 +72,28 @@ public class ImageAnalyzer {
 	public Date getTimestamp() { return timestamp; }
 	public Pos getLabeledCometPos() { return labeledCometPos; }
 	public double getVmag() { return vmag; }
-	public int[][] getMatrix() { return matrix; }
-	public String getProperty(String key) { return fitsProperties.getProperty(key); }
+	public GrayFrame getFrame() { return frame; }
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public FitsHeader getHeader() { return header; }
 	public double getExpTime() { return expTime; }
 	public void setSpots(List<Pos> spots) { this.spots = spots; }
 	public List<Pos> getSpots() { return spots; }
 
 	
+	/**
+	 * get the pixel value, outside of the frame the value of the nearest frame pixel is returned.
+	 * @param x
+	 * @param y
+	 * @return
+	 */
 	public int get(int x, int y) {
-		if (isInRange(x, y)) {
-			return matrix[y][x];
+		if (frame.isInBorder(x, y)) {
+			return frame.get(x, y);
 		}
 		int borderX = Math.max(0, Math.min(width-1, x));
 		int borderY = Math.max(0, Math.min(height-1, y));
-		return matrix[borderY][borderX];
+		return frame.get(borderX, borderY);
 	}
 
 	/**
@@ -76,6 +105,21 @@ public class ImageAnalyzer {
 	 */
 	public MinMaxCounter countNeighbours(int x, int y, int dist) {
 		MinMaxCounter result = new MinMaxCounter();
+		if (isInBorder(x-dist, y-dist, x+dist, y+dist)) {
+			char[] pixels = frame.getPixels();
+			int stride = frame.getStride();
+			int top = frame.index(x, y-dist);
+			int bottom = frame.index(x, y+dist);
+			for (int n=-dist; n<=dist; n++) {
+				result.update(pixels[top+n]);
+				result.update(pixels[bottom+n]);
+			}
+			for (int n=top+stride; n<bottom; n+=stride) {
+				result.update(pixels[n-dist]);
+				result.update(pixels[n+dist]);
+			}
+			return result;
+		}
 		for (int n=-dist; n<=dist; n++) {
 			result.update(get(x+n, y-dist));
 			result.update(get(x+n, y+dist));
@@ -129,24 +173,38 @@ public class ImageAnalyzer {
 		int[] gray = new int[1];
 		BufferedImage result = new BufferedImage(toX-fromX+1, toY-fromY+1, BufferedImage.TYPE_BYTE_GRAY);
 		WritableRaster raster = result.getRaster();
+		boolean inBorder = isInBorder(fromX, fromY, toX, toY);
+		char[] pixels = frame.getPixels();
 		for (int y=fromY; y<=toY; y++) {
+			int rowOffset = inBorder ? frame.index(0, y) : 0;
 			for (int x=fromX; x<=toX; x++) {
-				gray[0] = Math.max(0, Math.min(255, (int) (scale*(get(x,y)-offset))));
+				int value = inBorder ? pixels[rowOffset+x] : get(x,y);
+				gray[0] = Math.max(0, Math.min(255, (int) (scale*(value-offset))));
 				raster.setPixel(x-fromX, y-fromY, gray);
 			}
 		}
 		return result;
 	}
 
-	private boolean isInRange(int x, int y) {
-		return (x>=0) && (x<width) & (y>=0) && (y<height);
+	private boolean isInBorder(int fromX, int fromY, int toX, int toY) {
+		return frame.isInBorder(fromX, fromY) && frame.isInBorder(toX, toY);
 	}
 
 	public MinMaxCounter calcMinMax(int fromX, int fromY, int toX, int toY) {
 		MinMaxCounter result = new MinMaxCounter();
+		if (!isInBorder(fromX, fromY, toX, toY)) {
+			for (int y=fromY; y<=toY; y++) {
+				for (int x=fromX; x<=toX; x++) {
+					result.update(get(x,y));
+				}
+			}
+			return result;
+		}
+		char[] pixels = frame.getPixels();
 		for (int y=fromY; y<=toY; y++) {
+			int offset = frame.index(0, y);
 			for (int x=fromX; x<=toX; x++) {
-				result.update(get(x,y));
+				result.update(pixels[offset+x]);
 			}
 		}
 		return result;
@@ -162,13 +220,444 @@ public class ImageAnalyzer {
 		return result;
 	}
 
+	/**
+	 * histogram of the pixels in the range (including fromXY, toXY), e.g. for percentiles of a ROI.
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @return
+	 */
+	public HistogramStat calcHistogram(int fromX, int fromY, int toX, int toY) {
+		HistogramStat result = new HistogramStat();
+		if (!isInBorder(fromX, fromY, toX, toY)) {
+			for (int y=fromY; y<=toY; y++) {
+				for (int x=fromX; x<=toX; x++) {
+					result.update(get(x,y));
+				}
+			}
+			return result;
+		}
+		char[] pixels = frame.getPixels();
+		for (int y=fromY; y<=toY; y++) {
+			int offset = frame.index(0, y);
+			for (int x=fromX; x<=toX; x++) {
+				result.update(pixels[offset+x]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * histogram of the whole frame, e.g. for display stretching or the noise floor.
+	 * @return
+	 */
+	public HistogramStat calcHistogram() {
+		return calcHistogram(0, 0, getWidth()-1, getHeight()-1);
+	}
+
+	/**
+	 * summed-area tables, built on first call and kept until releaseIntegralImage().
+	 * The range queries only use the tables if they were already built, so callers with many
+	 * or large queries on the same frame call this first.
+	 * @return
+	 */
+	public IntegralImage getIntegralImage() {
+		IntegralImage result = integralImage;
+		if (result == null) {
+			synchronized (this) {
+				if (integralImage == null) {
+					integralImage = new IntegralImage(frame);
+				}
+				result = integralImage;
+			}
+		}
+		return result;
+	}
+
+	public void releaseIntegralImage() {
+		integralImage = null;
+	}
+
+	/**
+	 * sum of all pixels in range (including fromXY, toXY).
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @return
+	 */
+	public long calcSum(int fromX, int fromY, int toX, int toY) {
+		IntegralImage sat = integralImage;
+		if (sat != null && sat.contains(fromX, fromY, toX, toY)) {
+			return sat.getSum(fromX, fromY, toX, toY);
+		}
+		long result = 0;
+		if (isInBorder(fromX, fromY, toX, toY)) {
+			char[] pixels = frame.getPixels();
+			for (int y=fromY; y<=toY; y++) {
+				int offset = frame.index(0, y);
+				for (int x=fromX; x<=toX; x++) {
+					result += pixels[offset+x];
+				}
+			}
+			return result;
+		}
+		for (int y=fromY; y<=toY; y++) {
+			for (int x=fromX; x<=toX; x++) {
+				result += get(x, y);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * sum of the squares of all pixels in range (including fromXY, toXY).
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @return
+	 */
+	public long calcSQSum(int fromX, int fromY, int toX, int toY) {
+		IntegralImage sat = integralImage;
+		if (sat != null && sat.contains(fromX, fromY, toX, toY)) {
+			return sat.getSQSum(fromX, fromY, toX, toY);
+		}
+		long result = 0;
+		if (isInBorder(fromX, fromY, toX, toY)) {
+			char[] pixels = frame.getPixels();
+			for (int y=fromY; y<=toY; y++) {
+				int offset = frame.index(0, y);
+				for (int x=fromX; x<=toX; x++) {
+					long value = pixels[offset+x];
+					result += value*value;
+				}
+			}
+			return result;
+		}
+		for (int y=fromY; y<=toY; y++) {
+			for (int x=fromX; x<=toX; x++) {
+				long value = get(x, y);
+				result += value*value;
+			}
+		}
+		return result;
+	}
+
+	public double calcMean(int fromX, int fromY, int toX, int toY) {
+		long count = countPixels(fromX, fromY, toX, toY);
+		return count == 0 ? 0.0 : ((double)calcSum(fromX, fromY, toX, toY))/count;
+	}
+
+	/**
+	 * same as calcMinMaxStat(...).getSigma(), but without allocation and in O(1) after getIntegralImage().
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @return
+	 */
+	public double calcSigma(int fromX, int fromY, int toX, int toY) {
+		long count = countPixels(fromX, fromY, toX, toY);
+		return IntegralImage.calcSigma(count, calcSum(fromX, fromY, toX, toY), calcSQSum(fromX, fromY, toX, toY));
+	}
+
+	/**
+	 * average of the surrounding square with distance dist (>0) from the center,
+	 * calculated as the difference of two boxes.
+	 * @param x
+	 * @param y
+	 * @param dist
+	 * @return
+	 */
+	public double surroundingMean(int x, int y, int dist) {
+		long count = 8L*dist;
+		long sum = calcSum(x-dist, y-dist, x+dist, y+dist) - calcSum(x-dist+1, y-dist+1, x+dist-1, y+dist-1);
+		return ((double)sum)/count;
+	}
+
+	/**
+	 * same as surroundingStat(...).getSigma() for dist>0, but in O(1).
+	 * @param x
+	 * @param y
+	 * @param dist
+	 * @return
+	 */
+	public double surroundingSigma(int x, int y, int dist) {
+		long count = 8L*dist;
+		long sum = calcSum(x-dist, y-dist, x+dist, y+dist) - calcSum(x-dist+1, y-dist+1, x+dist-1, y+dist-1);
+		long sqSum = calcSQSum(x-dist, y-dist, x+dist, y+dist) - calcSQSum(x-dist+1, y-dist+1, x+dist-1, y+dist-1);
+		return IntegralImage.calcSigma(count, sum, sqSum);
+	}
+
+	/**
+	 * calcSigma(x-radius, y-radius, x+radius, y+radius) for every pixel of the frame, index is y*width+x,
+	 * e.g. as noise map. The sigmas for the last requested radius are kept until releaseLocalSigmas() is called.
+	 * @param radius
+	 * @return
+	 */
+	public synchronized float[] getLocalSigmas(int radius) {
+		if (localSigmas == null || localSigmaRadius != radius) {
+			localSigmas = calcLocalSigmas(radius);
+			localSigmaRadius = radius;
+		}
+		return localSigmas;
+	}
+
+	public synchronized void releaseLocalSigmas() {
+		localSigmas = null;
+	}
+
+	/**
+	 * how the exposure normalized pixels are kept, changing the policy releases them.
+	 * The default RECOMPUTE does not pin a plane per frame, KEEP is for frames which are read repeatedly.
+	 * @param planePolicy
+	 */
+	public synchronized void setPlanePolicy(PlanePolicy planePolicy) {
+		releaseNormalizedPixels();
+		this.planePolicy = planePolicy;
+	}
+
+	public PlanePolicy getPlanePolicy() {
+		return planePolicy;
+	}
+
+	/**
+	 * pixel values divided by the exposure time, index is y*width+x.
+	 * The plane is calculated on first use and then kept according to the plane policy,
+	 * with SPILL each call returns a new copy read from the spill file.
+	 * @return
+	 */
+	public synchronized float[] getNormalizedPixels() {
+		switch (planePolicy) {
+		case KEEP: {
+			if (normalizedPixels == null) {
+				normalizedPixels = calcNormalizedPixels();
+			}
+			return normalizedPixels;
+		}
+		case RECOMPUTE: {
+			float[] result = softNormalizedPixels == null ? null : softNormalizedPixels.get();
+			if (result == null) {
+				result = calcNormalizedPixels();
+				softNormalizedPixels = new SoftReference<>(result);
+			}
+			return result;
+		}
+		case SPILL: {
+			if (spilledNormalizedPixels == null) {
+				float[] result = calcNormalizedPixels();
+				spilledNormalizedPixels = spill(result);
+				return result;
+			}
+			return unspill(spilledNormalizedPixels);
+		}
+		default:
+			throw new RuntimeException("invalid plane policy "+planePolicy);
+		}
+	}
+
+	/**
+	 * pixel value divided by the exposure time, outside of the frame the value of the nearest frame pixel is returned.
+	 * Use getNormalizedPixels() in loops.
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public float getNormalized(int x, int y) {
+		int borderX = Math.max(0, Math.min(width-1, x));
+		int borderY = Math.max(0, Math.min(height-1, y));
+		return getNormalizedPixels()[borderY*width+borderX];
+	}
+
+	public synchronized void releaseNormalizedPixels() {
+		normalizedPixels = null;
+		softNormalizedPixels = null;
+		if (spilledNormalizedPixels != null) {
+			try {
+				Files.deleteIfExists(spilledNormalizedPixels);
+			} catch (IOException e) {
+				throw new RuntimeException(e.toString(), e);
+			}
+			spilledNormalizedPixels = null;
+		}
+	}
+
+	private float[] calcNormalizedPixels() {
+		float[] result = new float[width*height];
+		char[] pixels = frame.getPixels();
+		for (int y=0; y<height; y++) {
+			int src = frame.index(0, y);
+			int dest = y*width;
+			for (int x=0; x<width; x++) {
+				result[dest+x] = (float)(pixels[src+x]/expTime);
+			}
+		}
+		return result;
+	}
+
+	private static Path spill(float[] plane) {
+		try {
+			Path result = Files.createTempFile("normalized-", ".f32");
+			result.toFile().deleteOnExit();
+			// no mapped buffer, it would keep the file open until it is garbage collected
+			ByteBuffer buffer = ByteBuffer.allocate(4*plane.length).order(ByteOrder.nativeOrder());
+			buffer.asFloatBuffer().put(plane);
+			try (FileChannel channel = FileChannel.open(result, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			return result;
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	private static float[] unspill(Path spillFile) {
+		try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int)channel.size()).order(ByteOrder.nativeOrder());
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+			}
+			buffer.flip();
+			float[] result = new float[buffer.remaining()/4];
+			buffer.asFloatBuffer().get(result);
+			return result;
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	private float[] calcLocalSigmas(int radius) {
+		if (radius <= frame.getBorder()) {
+			return LocalSigmaFilter.calcSigmas(frame, radius);
+		}
+		// windows beyond the border, the summed-area tables pay off for a whole frame
+		boolean temporary = (integralImage == null);
+		getIntegralImage();
+		float[] result = new float[width*height];
+		for (int y=0; y<height; y++) {
+			for (int x=0; x<width; x++) {
+				result[y*width+x] = (float)calcSigma(x-radius, y-radius, x+radius, y+radius);
+			}
+		}
+		if (temporary) {
+			releaseIntegralImage();
+		}
+		return result;
+	}
+
+	private static long countPixels(int fromX, int fromY, int toX, int toY) {
+		if (toX<fromX || toY<fromY) {
+			return 0;
+		}
+		return (toX-fromX+1L)*(toY-fromY+1L);
+	}
+
+	/**
+	 * compare the average of the 3x3 center with the ring at distance 4.
+	 * Both are measured relative to the minimum of the ring. 
+	 * @param x
+	 * @param y
+	 * @return
+	 */
 	public double checkComet(int x, int y) {
-		MinMaxCounter center1MinMax = calcMinMax(x-1,y-1, x+1,y+1);
-		MinMaxCounter outer4MinMax = countNeighbours(x, y,  4);
-//		logger.info("CENTER1: "+center1MinMax);
-//		logger.info("OUTER4: "+outer4MinMax);
-		double centerDist = center1MinMax.getAvg()-outer4MinMax.getMin();
-		double outerDist = outer4MinMax.getAvg()-outer4MinMax.getMin();
+		if (!isInBorder(x-4, y-4, x+4, y+4)) {
+			MinMaxCounter center1MinMax = calcMinMax(x-1,y-1, x+1,y+1);
+			MinMaxCounter outer4MinMax = countNeighbours(x, y,  4);
+//			logger.info("CENTER1: "+center1MinMax);
+//			logger.info("OUTER4: "+outer4MinMax);
+			return calcCometFactor(center1MinMax.getAvg(), outer4MinMax.getMin(), outer4MinMax.getAvg());
+		}
+		// same as above, the border makes range checks unnecessary and no counters are allocated
+		char[] pixels = frame.getPixels();
+		int stride = frame.getStride();
+		int center = frame.index(x, y);
+		int centerTotal = 0;
+		for (int n=center-stride; n<=center+stride; n+=stride) {
+			centerTotal += pixels[n-1] + pixels[n] + pixels[n+1];
+		}
+		int outerMin = Integer.MAX_VALUE;
+		int outerTotal = 0;
+		int top = center-4*stride;
+		int bottom = center+4*stride;
+		for (int n=-4; n<=4; n++) {
+			int t = pixels[top+n];
+			int b = pixels[bottom+n];
+			outerMin = Math.min(outerMin, Math.min(t, b));
+			outerTotal += t + b;
+		}
+		for (int n=center-3*stride; n<=center+3*stride; n+=stride) {
+			int l = pixels[n-4];
+			int r = pixels[n+4];
+			outerMin = Math.min(outerMin, Math.min(l, r));
+			outerTotal += l + r;
+		}
+		return calcCometFactor(centerTotal/9, outerMin, outerTotal/32);
+	}
+
+	/**
+	 * checkComet() for every pixel of the frame, index is y*width+x.
+	 * The scores are calculated once and kept until releaseCometScores() is called.
+	 * Scores are ratios of 16 bit integers, so the float values compare to the 
+	 * detection thresholds exactly like the double values of checkComet().
+	 * @return
+	 */
+	public float[] getCometScores() {
+		float[] result = cometScores;
+		if (result == null) {
+			synchronized (this) {
+				if (cometScores == null) {
+					cometScores = calcCometScores();
+				}
+				result = cometScores;
+			}
+		}
+		return result;
+	}
+
+	public void releaseCometScores() {
+		cometScores = null;
+	}
+
+	private float[] calcCometScores() {
+		float[] result = new float[width*height];
+		if (frame.getBorder() < 4) {
+			for (int y=0; y<height; y++) {
+				for (int x=0; x<width; x++) {
+					result[y*width+x] = (float)checkComet(x, y);
+				}
+			}
+			return result;
+		}
+		// the ring at distance 4 consists of two rows of 9 and two columns of 7 pixels,
+		// so its min and sum are combined from one dimensional sliding window planes.
+		char[] pixels = frame.getPixels();
+		int stride = frame.getStride();
+		int rows = pixels.length/stride;
+		char[] rowMin = SlidingWindowFilter.horizontalMin(pixels, stride, rows, 4);
+		char[] colMin = SlidingWindowFilter.verticalMin(pixels, stride, rows, 3);
+		int[] rowSum = SlidingWindowFilter.horizontalSum(pixels, stride, rows, 4);
+		int[] colSum = SlidingWindowFilter.verticalSum(pixels, stride, rows, 3);
+		int[] centerSum = SlidingWindowFilter.verticalSum(SlidingWindowFilter.horizontalSum(pixels, stride, rows, 1), stride, rows, 1);
+		int top = -4*stride;
+		int bottom = 4*stride;
+		for (int y=0; y<height; y++) {
+			int c = frame.index(0, y);
+			int dest = y*width;
+			for (int x=0; x<width; x++, c++) {
+				int outerMin = Math.min(Math.min(rowMin[c+top], rowMin[c+bottom]), Math.min(colMin[c-4], colMin[c+4]));
+				int outerTotal = rowSum[c+top] + rowSum[c+bottom] + colSum[c-4] + colSum[c+4];
+				result[dest+x] = (float)calcCometFactor(centerSum[c]/9, outerMin, outerTotal/32);
+			}
+		}
+		return result;
+	}
+
+	private static double calcCometFactor(int centerAvg, int outerMin, int outerAvg) {
+		double centerDist = centerAvg-outerMin;
+		double outerDist = outerAvg-outerMin;
 		double factorCenter2Outer = outerDist==0.0?centerDist : centerDist/outerDist;
 		return factorCenter2Outer;
 	}
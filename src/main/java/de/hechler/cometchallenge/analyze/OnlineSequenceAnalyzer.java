@@ -0,0 +1,114 @@
+package de.hechler.cometchallenge.analyze;
+
+import java.util.List;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.track.KalmanTracker;
+
+/**
+ * spot detection and tracking for frames arriving one after the other.
+ * The spots of a frame are detected as soon as its next frame is pushed, with the same neighbour rules
+ * as SequenceAnalyzer.detectCometSpots(), and passed on to a KalmanTracker.
+ * Only the last two frames are kept, older frames and their comet scores are released,
+ * so the memory does not grow with the length of the sequence. Not thread safe.
+ */
+public class OnlineSequenceAnalyzer {
+
+	/**
+	 * result of one push: the frame whose spots were detected and the state of the tracker.
+	 */
+	public static class Update {
+		private ImageAnalyzer detectedImage;
+		private List<CometPath> confirmedPaths;
+		private List<CometPath> finishedPaths;
+		private List<CometPath> activePaths;
+		public Update(ImageAnalyzer detectedImage, List<CometPath> confirmedPaths, List<CometPath> finishedPaths, List<CometPath> activePaths) {
+			this.detectedImage = detectedImage;
+			this.confirmedPaths = confirmedPaths;
+			this.finishedPaths = finishedPaths;
+			this.activePaths = activePaths;
+		}
+		/** @return the frame with new spots or null */
+		public ImageAnalyzer getDetectedImage() { return detectedImage; }
+		/** @return paths confirmed by this update, they still grow while active */
+		public List<CometPath> getConfirmedPaths() { return confirmedPaths; }
+		/** @return confirmed paths which ended with this update */
+		public List<CometPath> getFinishedPaths() { return finishedPaths; }
+		/** @return all confirmed paths which are still active */
+		public List<CometPath> getActivePaths() { return activePaths; }
+	}
+
+	private SequenceAnalyzer detector;
+	private KalmanTracker tracker;
+	private ImageAnalyzer previousImage;
+	private ImageAnalyzer currentImage;
+	private int frameCount;
+
+	public OnlineSequenceAnalyzer() {
+		this(new KalmanTracker());
+	}
+
+	public OnlineSequenceAnalyzer(KalmanTracker tracker) {
+		this.detector = new SequenceAnalyzer();
+		this.tracker = tracker;
+		tracker.reset();
+	}
+
+	/**
+	 * add the next frame, the spots of the frame before are detected and tracked.
+	 * @param image next frame, later than all frames pushed before
+	 * @return
+	 */
+	public Update push(ImageAnalyzer image) {
+		if (currentImage != null && !image.getTimestamp().after(currentImage.getTimestamp())) {
+			throw new RuntimeException("frame "+image.getFilename()+" is not later than "+currentImage.getFilename());
+		}
+		frameCount++;
+		if (currentImage == null) {
+			currentImage = image;
+			return createUpdate(null);
+		}
+		// edge case first image: use next image as previous image
+		ImageAnalyzer lastImage = previousImage != null ? previousImage : image;
+		ImageAnalyzer detectedImage = detect(lastImage, currentImage, image);
+		if (previousImage != null) {
+			previousImage.releaseCometScores();
+		}
+		previousImage = currentImage;
+		currentImage = image;
+		return createUpdate(detectedImage);
+	}
+
+	/**
+	 * end of the sequence, the last frame is detected and all tracks are ended.
+	 * @return
+	 */
+	public Update finish() {
+		ImageAnalyzer detectedImage = null;
+		if (previousImage != null) {
+			// edge case last image: use previous image as next image
+			detectedImage = detect(previousImage, currentImage, previousImage);
+			previousImage.releaseCometScores();
+			currentImage.releaseCometScores();
+		}
+		tracker.finish();
+		previousImage = null;
+		currentImage = null;
+		return createUpdate(detectedImage);
+	}
+
+	private ImageAnalyzer detect(ImageAnalyzer lastImage, ImageAnalyzer thisImage, ImageAnalyzer nextImage) {
+		detector.detectCometSpots(lastImage, thisImage, nextImage);
+		tracker.processFrame(thisImage.getTimestamp(), thisImage.getSpots());
+		return thisImage;
+	}
+
+	private Update createUpdate(ImageAnalyzer detectedImage) {
+		return new Update(detectedImage, tracker.pollConfirmedPaths(), tracker.pollFinishedPaths(), tracker.getActivePaths());
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+}
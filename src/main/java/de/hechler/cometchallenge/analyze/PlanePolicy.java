@@ -0,0 +1,15 @@
+package de.hechler.cometchallenge.analyze;
+
+/**
+ * how ImageAnalyzer keeps a derived plane like the exposure normalized pixels after it was calculated.
+ */
+public enum PlanePolicy {
+
+	/** the plane stays on the heap until it is released */
+	KEEP,
+	/** the default, the plane is only softly referenced and recalculated after the garbage collector dropped it */
+	RECOMPUTE,
+	/** the plane is written to a temporary file and read back on each access */
+	SPILL;
+
+}
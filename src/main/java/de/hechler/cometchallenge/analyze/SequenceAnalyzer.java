@@ -1,8 +1,6 @@
 package de.hechler.cometchallenge.analyze;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
@@ -12,23 +10,24 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntFunction;
 import java.util.logging.Logger;
 
 import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.fits.FitsImage;
+import de.hechler.cometchallenge.fits.FitsReader;
 import de.hechler.cometchallenge.geometry.Pos;
+import de.hechler.cometchallenge.geometry.PosGrid;
 import de.hechler.cometchallenge.utils.Utils;
-import ij.ImagePlus;
-import ij.plugin.FITS_Reader;
-import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
 
 public class SequenceAnalyzer {
 
@@ -40,14 +39,40 @@ public class SequenceAnalyzer {
 	private static final String COMETPOS_RX = "^\\s*([-0-9]+\\s+[0-9:]+)\\s+([0-9]+[.]fts)\\s+([0-9.]+)\\s+([0-9.]+)\\s+([0-9.an]+)\\s*$";
 	private static final String TIMESTAMP_FORMAT = "YYYY-MM-dd HH:mm:ss";
 	
-	private static class ReadGrayscaleResult {
-		int[][] matrix;
-		Properties properties;
-		public ReadGrayscaleResult(int[][] matrix, Properties properties) {
-			this.matrix = matrix;
-			this.properties = properties;
+	static class SequenceEntry {
+		Path path;
+		Date timestamp;
+		Pos labeledCometPos;
+		Double vMag;
+		public SequenceEntry(Path path, Date timestamp, Pos labeledCometPos, Double vMag) {
+			this.path = path;
+			this.timestamp = timestamp;
+			this.labeledCometPos = labeledCometPos;
+			this.vMag = vMag;
+		}
+	}
+	
+	/**
+	 * counts for each frame the spot detections which still need its comet scores.
+	 * When the last of them is done, the scores are released.
+	 */
+	private static class CometScoreUsage {
+		AtomicIntegerArray users;
+		public CometScoreUsage(int n) {
+			users = new AtomicIntegerArray(n);
+			for (int i=0; i<n; i++) {
+				for (int j:getNeighbourIndexes(i, n)) {
+					users.incrementAndGet(j);
+				}
+			}
+		}
+		public void done(int i, IntFunction<ImageAnalyzer> frames) {
+			for (int j:getNeighbourIndexes(i, users.length())) {
+				if (users.decrementAndGet(j) == 0) {
+					frames.apply(j).releaseCometScores();
+				}
+			}
 		}
-		
 	}
 	
 	public void readSequence(Path folder) {
@@ -57,6 +82,71 @@ public class SequenceAnalyzer {
 	
 		images = new ArrayList<>();
 		timestamp2imageMap = new HashMap<>();
+		for (SequenceEntry entry:readSequenceInfo(folder)) {
+			ImageAnalyzer ia = readImage(entry);
+			timestamp2imageMap.put(ia.getTimestamp(), ia);
+			images.add(ia);
+		}
+	}
+
+	/**
+	 * same as readSequence(folder), but the FITS files are decoded in parallel by at most threads workers.
+	 * The frame order and the timestamp mapping are the same as for the sequential read.
+	 * @param folder
+	 * @param threads
+	 */
+	public void readSequence(Path folder, int threads) {
+		readSequenceParallel(folder, threads, false);
+	}
+
+	/**
+	 * read the sequence in parallel and detect the comet spots of each frame as soon as 
+	 * the frame and its previous and next frame are loaded.
+	 * The result is the same as readSequence(folder) followed by detectCometSpots().
+	 * @param folder
+	 * @param threads
+	 */
+	public void readSequenceAndDetectCometSpots(Path folder, int threads) {
+		readSequenceParallel(folder, threads, true);
+	}
+
+	private void readSequenceParallel(Path folder, int threads, boolean detectSpots) {
+		List<SequenceEntry> entries = readSequenceInfo(folder);
+		int n = entries.size();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, n)));
+		try {
+			List<CompletableFuture<ImageAnalyzer>> loaded = new ArrayList<>();
+			for (SequenceEntry entry:entries) {
+				loaded.add(CompletableFuture.supplyAsync(() -> readImage(entry), executor));
+			}
+			List<CompletableFuture<Void>> detected = detectSpots ? scheduleCometSpots(loaded, executor) : new ArrayList<>();
+			images = new ArrayList<>();
+			timestamp2imageMap = new HashMap<>();
+			for (CompletableFuture<ImageAnalyzer> future:loaded) {
+				ImageAnalyzer ia = join(future);
+				timestamp2imageMap.put(ia.getTimestamp(), ia);
+				images.add(ia);
+			}
+			detected.forEach(future -> join(future));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause().toString(), e.getCause());
+		}
+	}
+
+	List<SequenceEntry> readSequenceInfo(Path folder) {
+		List<SequenceEntry> result = new ArrayList<>();
 		String labeledDataFilename = folder.getFileName().toString()+".txt";
 		List<String> sequenceInfo = Utils.readAllLines(folder.resolve(labeledDataFilename));
 		for (String line:sequenceInfo) {
@@ -74,13 +164,27 @@ public class SequenceAnalyzer {
 			double yPos = Double.parseDouble(line.replaceFirst(COMETPOS_RX, "$4"));
 			String vMagText = line.replaceFirst(COMETPOS_RX, "$5");
 			Double vMag = vMagText.equals("nan") ? null : Double.parseDouble(vMagText);
-			
-			ReadGrayscaleResult rgResult = readRawGrayscale(path);
-			
-			ImageAnalyzer ia = new ImageAnalyzer(path, timestamp, new Pos(xPos, yPos), vMag, rgResult.matrix, rgResult.properties);
-			timestamp2imageMap.put(ia.getTimestamp(), ia);
-			images.add(ia);
+			result.add(new SequenceEntry(path, timestamp, new Pos(xPos, yPos), vMag));
+		}
+		return result;
+	}
+
+	ImageAnalyzer readImage(SequenceEntry entry) {
+		FitsImage fitsImage = readRawGrayscale(entry.path);
+		return new ImageAnalyzer(entry.path, entry.timestamp, entry.labeledCometPos, entry.vMag, fitsImage.getFrame(), fitsImage.getHeader());
+	}
+
+	/**
+	 * append a frame to the end of the sequence.
+	 * @param ia
+	 */
+	public void addImage(ImageAnalyzer ia) {
+		if (images == null) {
+			images = new ArrayList<>();
+			timestamp2imageMap = new HashMap<>();
 		}
+		timestamp2imageMap.put(ia.getTimestamp(), ia);
+		images.add(ia);
 	}
 
 	public ImageAnalyzer getImageAnalyzerForTimestamp(Date timestamp) {
@@ -115,6 +219,7 @@ public class SequenceAnalyzer {
 		lastImage = images.get(1);
 		thisImage = images.get(0);
 		
+		CometScoreUsage usage = new CometScoreUsage(images.size());
 		for (int i=0; i<images.size(); i++) {
 			if (i==images.size()-1) {
 				// edge case last image: use previous image as next image
@@ -124,17 +229,89 @@ public class SequenceAnalyzer {
 				nextImage = images.get(i+1);
 			}
 			
-			List<Pos> spots = searchAllComets(lastImage, thisImage, nextImage);
-			spots = concentrate(spots, 2);
-			thisImage.setSpots(spots);
-			String csvFilename = thisImage.getPath().toString().replace(".fts", "")+"-spots.csv";
-			writeCSV(csvFilename, spots);
+			detectCometSpots(lastImage, thisImage, nextImage);
+			usage.done(i, images::get);
 			
 			lastImage = thisImage;
 			thisImage = nextImage;
 		}
 	}
 	
+	/**
+	 * same as detectCometSpots(), but the frames are processed in parallel by at most threads workers.
+	 * @param threads
+	 */
+	public void detectCometSpots(int threads) {
+		List<CompletableFuture<ImageAnalyzer>> loaded = new ArrayList<>();
+		images.forEach(ia -> loaded.add(CompletableFuture.completedFuture(ia)));
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, images.size())));
+		try {
+			scheduleCometSpots(loaded, executor).forEach(future -> join(future));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * schedule the spot detection of each frame as soon as the frame and its neighbours are loaded.
+	 * Searching, clustering and writing the CSV file run as separate tasks.
+	 * @param loaded
+	 * @param executor
+	 * @return
+	 */
+	private List<CompletableFuture<Void>> scheduleCometSpots(List<CompletableFuture<ImageAnalyzer>> loaded, ExecutorService executor) {
+		int n = loaded.size();
+		IntFunction<ImageAnalyzer> frames = j -> loaded.get(j).join();
+		CometScoreUsage usage = new CometScoreUsage(n);
+		List<CompletableFuture<Void>> result = new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			// edge cases first / last image: use the only neighbour as previous and next image
+			CompletableFuture<ImageAnalyzer> lastImage = loaded.get(i==0 ? 1 : i-1);
+			CompletableFuture<ImageAnalyzer> thisImage = loaded.get(i);
+			CompletableFuture<ImageAnalyzer> nextImage = loaded.get(i==n-1 ? n-2 : i+1);
+			final int idx = i;
+			result.add(CompletableFuture.allOf(lastImage, thisImage, nextImage)
+				.thenApplyAsync(v -> {
+					List<Pos> spots = searchAllComets(lastImage.join(), thisImage.join(), nextImage.join());
+					usage.done(idx, frames);
+					return spots;
+				}, executor)
+				.thenApplyAsync(spots -> concentrate(spots, 2), executor)
+				.thenAcceptAsync(spots -> storeCometSpots(thisImage.join(), spots), executor));
+		}
+		return result;
+	}
+
+	/**
+	 * the frames needed for the spot detection of frame i: previous, this and next frame.
+	 * The first frame uses its next frame as previous frame, the last frame uses its previous frame as next frame.
+	 * @param i
+	 * @param n
+	 * @return distinct indexes
+	 */
+	private static int[] getNeighbourIndexes(int i, int n) {
+		if (i == 0) {
+			return new int[] {0, 1};
+		}
+		if (i == n-1) {
+			return new int[] {n-2, n-1};
+		}
+		return new int[] {i-1, i, i+1};
+	}
+
+	void detectCometSpots(ImageAnalyzer lastImage, ImageAnalyzer thisImage, ImageAnalyzer nextImage) {
+		List<Pos> spots = searchAllComets(lastImage, thisImage, nextImage);
+		spots = concentrate(spots, 2);
+		storeCometSpots(thisImage, spots);
+	}
+
+	private void storeCometSpots(ImageAnalyzer image, List<Pos> spots) {
+		image.setSpots(spots);
+		String csvFilename = image.getPath().toString().replace(".fts", "")+"-spots.csv";
+		writeCSV(csvFilename, spots);
+	}
+	
 	public List<CometPath> detectCometPaths() {
 		
 		List<CometPath> cometPaths = new ArrayList<>();
@@ -144,6 +321,8 @@ public class SequenceAnalyzer {
 			List<Pos> spots = image.getSpots();
 			Date timestamp = image.getTimestamp();
 			
+			PosGrid spotGrid = new PosGrid(spots, CometPath.MH_TOLERATED);
+			
 			List<CometPath> lastCometPaths = cometPaths;
 			cometPaths = new ArrayList<>();
 			for (Pos spot:spots) {
@@ -151,11 +330,24 @@ public class SequenceAnalyzer {
 			}
 			for (CometPath lastCometPath:lastCometPaths) {
 				boolean found = false;
-				for (Pos spot:spots) {
-					CometPath next = lastCometPath.createNewIfInRange(timestamp, spot);
-					if (next != null) {
+				Pos expectedPos = lastCometPath.getExpectedPos(timestamp);
+				if (expectedPos == null) {
+					// a single position accepts every spot
+					for (Pos spot:spots) {
+						cometPaths.add(lastCometPath.createNewIfInRange(timestamp, spot));
 						found = true;
-						cometPaths.add(next);
+					}
+				}
+				else {
+					// only spots near the expected position can be in range, the grid returns them in list order
+					double tolerance = CometPath.MH_TOLERATED + 1.0;
+					int[] candidates = spotGrid.query(expectedPos.getX()-tolerance, expectedPos.getY()-tolerance, expectedPos.getX()+tolerance, expectedPos.getY()+tolerance);
+					for (int idx:candidates) {
+						CometPath next = lastCometPath.createNewIfInRange(timestamp, spots.get(idx));
+						if (next != null) {
+							found = true;
+							cometPaths.add(next);
+						}
 					}
 				}
 				if (!found) {
@@ -202,61 +394,12 @@ public class SequenceAnalyzer {
 	}
 
 	private List<Pos> concentrate(List<Pos> centers, int mhDist) {
-		Set<Pos> centersPos = new LinkedHashSet<>(centers);
-		final Map<Pos, Set<Pos>> clusters = new LinkedHashMap<>();
-		centersPos.forEach(p -> {
-			Set<Pos> sp = new HashSet<>();
-			sp.add(p);
-			clusters.put(p, sp);
-		});	
-		while (!centersPos.isEmpty()) {
-			Pos centerPos = centersPos.iterator().next();
-			centersPos.remove(centerPos);
-			Iterator<Pos> otherCenterIter = centersPos.iterator();
-			while (otherCenterIter.hasNext()) {
-				Pos otherCenterPos = otherCenterIter.next();
-				if (centerPos.getManhattenDist(otherCenterPos) <= 2) {
-					final Set<Pos> sp1 = clusters.get(centerPos);
-					Set<Pos> sp2 = clusters.get(otherCenterPos);
-					sp1.addAll(sp2);
-					sp2.forEach(p -> clusters.put(p, sp1));
-				}
-			}
-		}
-		Set<Pos> result = new LinkedHashSet<>();
-		clusters.values().forEach(sp -> result.add(calcAveragePos(sp)));
-		return new ArrayList<>(result);
-	}
-
-	private Pos calcAveragePos(Set<Pos> posList) {
-		if (posList.size() == 1) {
-			return posList.iterator().next();
-		}
-		final Pos sum = new Pos(0,0);
-		posList.forEach(p -> sum.add(p));
-		int cnt = posList.size(); 
-		return new Pos((sum.getX()+cnt/2)/cnt,(sum.getY()+cnt/2)/cnt);
+		return SpotClusterer.concentrate(centers, mhDist);
 	}
 
-	private ReadGrayscaleResult readRawGrayscale(Path path) {
+	private FitsImage readRawGrayscale(Path path) {
 		logger.info("reading "+path.getFileName().toString());
-		FITS_Reader reader = new FITS_Reader();
-		reader.run(path.toString());
-		ImagePlus imp = (ImagePlus)reader;
-		ImageProcessor imgProc = imp.getProcessor();
-		ShortProcessor shortProc = (ShortProcessor)imgProc.convertToShort(false);
-		BufferedImage gray16img = shortProc.get16BitBufferedImage();
-		Raster raster = gray16img.getData();
-		DataBuffer dataBuffer = raster.getDataBuffer();
-		int w = imp.getWidth();
-		int h = imp.getHeight();
-		int[][] matrix = new int[h][w];
-		for (int y = 0; y<h; y++) {
-			for (int x = 0; x<w; x++) {
-				matrix[h-1-y][x] = dataBuffer.getElem(h*y+x);
-			}
-		}
-		return new ReadGrayscaleResult(matrix, imp.getProperties());
+		return FitsReader.read(path);
 	}
 
 
@@ -291,25 +434,67 @@ public class SequenceAnalyzer {
 	}
 
 	private List<Pos> searchAllComets(ImageAnalyzer iaPrevious, ImageAnalyzer iaThis, ImageAnalyzer iaNext) {
-		List<Pos> result = new ArrayList<>();
-		for (int y=0; y<1024; y++) {
-			for (int x=0; x<1024; x++) {
-				double probaIsComet = iaThis.checkComet(x,y);
-				if (probaIsComet<4.0) {
-					continue;
-				}
-				double previosProbaIsComet = iaPrevious.checkComet(x,y);
-				if (previosProbaIsComet>=1.6) {
-					continue;
-				}
-				double nextProbaIsComet = iaNext.checkComet(x,y);
-				if (nextProbaIsComet>=1.6) {
-					continue;
+		float[] thisScores = iaThis.getCometScores();
+		float[] previousScores = iaPrevious.getCometScores();
+		float[] nextScores = iaNext.getCometScores();
+		SearchCometsTask task = new SearchCometsTask(previousScores, thisScores, nextScores, iaThis.getWidth(), 0, iaThis.getHeight());
+		return ForkJoinPool.commonPool().invoke(task);
+	}
+
+	/**
+	 * scans the rows fromY..toY-1 of the comet scores, bands larger than SEARCH_BAND_ROWS are split.
+	 * Each band collects its hits locally, the hits are joined in raster order.
+	 */
+	private static class SearchCometsTask extends RecursiveTask<List<Pos>> {
+		private static final long serialVersionUID = 1L;
+		private static final int SEARCH_BAND_ROWS = 64;
+		private float[] previousScores;
+		private float[] thisScores;
+		private float[] nextScores;
+		private int width;
+		private int fromY;
+		private int toY;
+		public SearchCometsTask(float[] previousScores, float[] thisScores, float[] nextScores, int width, int fromY, int toY) {
+			this.previousScores = previousScores;
+			this.thisScores = thisScores;
+			this.nextScores = nextScores;
+			this.width = width;
+			this.fromY = fromY;
+			this.toY = toY;
+		}
+		@Override
+		protected List<Pos> compute() {
+			if (toY-fromY <= SEARCH_BAND_ROWS) {
+				return scan();
+			}
+			int midY = (fromY+toY)/2;
+			SearchCometsTask upper = new SearchCometsTask(previousScores, thisScores, nextScores, width, fromY, midY);
+			SearchCometsTask lower = new SearchCometsTask(previousScores, thisScores, nextScores, width, midY, toY);
+			upper.fork();
+			List<Pos> lowerResult = lower.compute();
+			List<Pos> result = upper.join();
+			result.addAll(lowerResult);
+			return result;
+		}
+		private List<Pos> scan() {
+			List<Pos> result = new ArrayList<>();
+			for (int y=fromY; y<toY; y++) {
+				for (int x=0; x<width; x++) {
+					int idx = y*width+x;
+					if (thisScores[idx]<4.0) {
+						continue;
+					}
+					if (previousScores[idx]>=1.6) {
+						continue;
+					}
+					if (nextScores[idx]>=1.6) {
+						continue;
+					}
+					result.add(new Pos(x,y));
 				}
-				result.add(new Pos(x,y));
 			}
+			return result;
 		}
-		return result;
 	}
 
 	
@@ -0,0 +1,197 @@
+package de.hechler.cometchallenge.analyze;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.fits.FitsReader;
+
+/**
+ * ingests the frames of a sequence folder while they arrive.
+ * The folder is watched for changes of the manifest (folder name + ".txt") and the FITS files,
+ * the manifest is only read again after it or the FITS file of a pending entry was created or modified.
+ * New manifest entries are read in time order as soon as their FITS file is complete,
+ * appended to the SequenceAnalyzer and pushed into an OnlineSequenceAnalyzer, so only the frame
+ * before the new one is detected and the tracks are continued from there.
+ * Entries are identified by their path, so inserted or reordered manifest lines are neither
+ * skipped nor ingested twice. An entry which is not later than the last ingested frame can not
+ * be added to the online analysis anymore and is ignored with a warning.
+ * The listener is called on the thread running watch().
+ */
+public class SequenceWatcher {
+
+	private static final Logger logger = Logger.getLogger(SequenceWatcher.class.getName());
+
+	/** max. time until stop() is noticed */
+	private static final long STOP_MILLIS = 200;
+
+	public interface Listener {
+		/**
+		 * @param newImage the frame which was added
+		 * @param update spot detection and tracker state after adding the frame
+		 */
+		public void frameAdded(ImageAnalyzer newImage, OnlineSequenceAnalyzer.Update update);
+	}
+
+	private Path folder;
+	private Path manifest;
+	private Listener listener;
+	private SequenceAnalyzer sequence;
+	private OnlineSequenceAnalyzer online;
+	private List<CometPath> cometPaths;
+	/** entries which were ingested or ignored */
+	private Set<Path> handledPaths;
+	/** entries in the manifest which wait for their FITS file */
+	private Set<Path> pendingPaths;
+	private Date lastTimestamp;
+	private volatile boolean stopped;
+
+	public SequenceWatcher(Path folder, Listener listener) {
+		this(folder, listener, new OnlineSequenceAnalyzer());
+	}
+
+	public SequenceWatcher(Path folder, Listener listener, OnlineSequenceAnalyzer online) {
+		this.folder = folder;
+		this.manifest = folder.resolve(folder.getFileName().toString()+".txt");
+		this.listener = listener;
+		this.online = online;
+		this.sequence = new SequenceAnalyzer();
+		this.cometPaths = new ArrayList<>();
+		this.handledPaths = new HashSet<>();
+		this.pendingPaths = new HashSet<>();
+	}
+
+	/**
+	 * ingest the frames present now, then wait for new ones until stop() is called or the thread is interrupted.
+	 */
+	public void watch() {
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			poll();
+			while (!stopped) {
+				WatchKey key = watchService.poll(STOP_MILLIS, TimeUnit.MILLISECONDS);
+				if (key == null) {
+					continue;
+				}
+				boolean changed = false;
+				for (WatchEvent<?> event:key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// events were lost
+						changed = true;
+						continue;
+					}
+					Path path = folder.resolve((Path)event.context());
+					if (path.equals(manifest) || pendingPaths.contains(path)) {
+						changed = true;
+					}
+				}
+				if (!key.reset()) {
+					logger.warning("stop watching, "+folder+" is no longer accessible");
+					return;
+				}
+				if (changed) {
+					poll();
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * ingest all new frames which are listed in the manifest and completely written.
+	 * @return number of added frames
+	 */
+	public int poll() {
+		List<SequenceAnalyzer.SequenceEntry> entries;
+		try {
+			entries = sequence.readSequenceInfo(folder);
+		}
+		catch (RuntimeException e) {
+			// manifest missing or its last line is still written
+			logger.fine("manifest not readable: "+e.getMessage());
+			return 0;
+		}
+		// frames are pushed in time order, even if manifest lines were reordered
+		entries = new ArrayList<>(entries);
+		entries.sort((e1, e2) -> e1.timestamp.compareTo(e2.timestamp));
+		int added = 0;
+		pendingPaths.clear();
+		boolean waiting = false;
+		for (SequenceAnalyzer.SequenceEntry entry:entries) {
+			if (handledPaths.contains(entry.path)) {
+				continue;
+			}
+			if (waiting) {
+				pendingPaths.add(entry.path);
+				continue;
+			}
+			if (lastTimestamp != null && !entry.timestamp.after(lastTimestamp)) {
+				logger.warning("ignoring "+entry.path+", it is not later than the last ingested frame");
+				handledPaths.add(entry.path);
+				continue;
+			}
+			if (!Files.exists(entry.path) || !FitsReader.isComplete(entry.path)) {
+				// later entries wait as well, frames are pushed in time order
+				pendingPaths.add(entry.path);
+				waiting = true;
+				continue;
+			}
+			ImageAnalyzer image = sequence.readImage(entry);
+			handledPaths.add(entry.path);
+			lastTimestamp = entry.timestamp;
+			sequence.addImage(image);
+			OnlineSequenceAnalyzer.Update update = online.push(image);
+			collect(update);
+			listener.frameAdded(image, update);
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * end of the sequence, detect the last frame and end all tracks.
+	 * @return
+	 */
+	public OnlineSequenceAnalyzer.Update finish() {
+		stop();
+		OnlineSequenceAnalyzer.Update update = online.finish();
+		collect(update);
+		return update;
+	}
+
+	private void collect(OnlineSequenceAnalyzer.Update update) {
+		cometPaths.addAll(update.getConfirmedPaths());
+	}
+
+	public SequenceAnalyzer getSequenceAnalyzer() {
+		return sequence;
+	}
+
+	/**
+	 * @return all paths confirmed so far, active paths still grow
+	 */
+	public List<CometPath> getCometPaths() {
+		return cometPaths;
+	}
+
+}
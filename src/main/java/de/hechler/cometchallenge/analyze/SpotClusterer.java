@@ -0,0 +1,111 @@
+package de.hechler.cometchallenge.analyze;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.hechler.cometchallenge.geometry.Pos;
+import de.hechler.cometchallenge.geometry.PosGrid;
+
+/**
+ * merges spots which are connected by a chain of neighbours with a manhattan distance of at most mhDist.
+ * The spots are bucketed into a PosGrid with cells of at least mhDist, so only the surrounding
+ * cells have to be compared, and the clusters are joined with a union-find on primitive arrays.
+ */
+public class SpotClusterer {
+
+	private SpotClusterer() {}
+
+	/**
+	 * replace each cluster by its average position.
+	 * The result is ordered by the first spot of each cluster, clusters with a single spot keep their Pos.
+	 * @param centers
+	 * @param mhDist
+	 * @return
+	 */
+	public static List<Pos> concentrate(List<Pos> centers, double mhDist) {
+		List<Pos> points = new ArrayList<>(new LinkedHashSet<>(centers));
+		int n = points.size();
+		if (n == 0) {
+			return points;
+		}
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for (int i=0; i<n; i++) {
+			xs[i] = points.get(i).getX();
+			ys[i] = points.get(i).getY();
+		}
+		PosGrid grid = new PosGrid(points, mhDist);
+		UnionFind clusters = new UnionFind(n);
+		for (int i=0; i<n; i++) {
+			for (int j:grid.query(xs[i]-mhDist, ys[i]-mhDist, xs[i]+mhDist, ys[i]+mhDist)) {
+				if (j > i && Math.abs(xs[j]-xs[i])+Math.abs(ys[j]-ys[i]) <= mhDist) {
+					clusters.union(i, j);
+				}
+			}
+		}
+
+		double[] sumX = new double[n];
+		double[] sumY = new double[n];
+		int[] count = new int[n];
+		for (int i=0; i<n; i++) {
+			int root = clusters.find(i);
+			sumX[root] += xs[i];
+			sumY[root] += ys[i];
+			count[root]++;
+		}
+		Set<Pos> result = new LinkedHashSet<>();
+		boolean[] added = new boolean[n];
+		for (int i=0; i<n; i++) {
+			int root = clusters.find(i);
+			if (added[root]) {
+				continue;
+			}
+			added[root] = true;
+			int cnt = count[root];
+			if (cnt == 1) {
+				result.add(points.get(i));
+			}
+			else {
+				result.add(new Pos((sumX[root]+cnt/2)/cnt, (sumY[root]+cnt/2)/cnt));
+			}
+		}
+		return new ArrayList<>(result);
+	}
+
+	private static class UnionFind {
+		private int[] parent;
+		private int[] size;
+		public UnionFind(int n) {
+			parent = new int[n];
+			size = new int[n];
+			for (int i=0; i<n; i++) {
+				parent[i] = i;
+				size[i] = 1;
+			}
+		}
+		public int find(int i) {
+			while (parent[i] != i) {
+				parent[i] = parent[parent[i]];
+				i = parent[i];
+			}
+			return i;
+		}
+		public void union(int i, int j) {
+			int ri = find(i);
+			int rj = find(j);
+			if (ri == rj) {
+				return;
+			}
+			if (size[ri] < size[rj]) {
+				int tmp = ri;
+				ri = rj;
+				rj = tmp;
+			}
+			parent[rj] = ri;
+			size[ri] += size[rj];
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package de.hechler.cometchallenge.fits;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * keywords of a FITS primary header, parsed from the 80 character cards.
+ */
+public class FitsHeader {
+
+	public static final int CARD_LENGTH = 80;
+	public static final int BLOCK_LENGTH = 2880;
+
+	private Map<String, String> keywords;
+	private String text;
+
+	public FitsHeader(Map<String, String> keywords, String text) {
+		this.keywords = Collections.unmodifiableMap(keywords);
+		this.text = text;
+	}
+
+	/**
+	 * parse one card into the keyword map, returns false for the END card.
+	 * @param keywords
+	 * @param card
+	 * @return
+	 */
+	static boolean parseCard(Map<String, String> keywords, String card) {
+		String keyword = card.substring(0, Math.min(8, card.length())).trim();
+		if (keyword.equals("END")) {
+			return false;
+		}
+		if (keyword.isEmpty() || card.length()<10 || !card.startsWith("= ", 8)) {
+			// COMMENT, HISTORY or blank cards have no value
+			return true;
+		}
+		String value = card.substring(10).trim();
+		if (value.startsWith("'")) {
+			int end = value.indexOf('\'', 1);
+			// quotes inside strings are escaped by doubling them
+			while (end != -1 && end+1<value.length() && value.charAt(end+1)=='\'') {
+				end = value.indexOf('\'', end+2);
+			}
+			value = end==-1 ? value.substring(1) : value.substring(1, end);
+			value = value.replace("''", "'").trim();
+		}
+		else {
+			int comment = value.indexOf('/');
+			if (comment != -1) {
+				value = value.substring(0, comment).trim();
+			}
+		}
+		if (!keywords.containsKey(keyword)) {
+			keywords.put(keyword, value);
+		}
+		return true;
+	}
+
+	public boolean hasKeyword(String keyword) {
+		return keywords.containsKey(keyword);
+	}
+
+	public String getString(String keyword) {
+		return keywords.get(keyword);
+	}
+
+	public int getInt(String keyword) {
+		String value = keywords.get(keyword);
+		if (value == null) {
+			throw new RuntimeException("missing FITS keyword "+keyword);
+		}
+		return Integer.parseInt(value);
+	}
+
+	public int getInt(String keyword, int defaultValue) {
+		return hasKeyword(keyword) ? getInt(keyword) : defaultValue;
+	}
+
+	public double getDouble(String keyword) {
+		String value = keywords.get(keyword);
+		if (value == null) {
+			throw new RuntimeException("missing FITS keyword "+keyword);
+		}
+		// FORTRAN style exponents like 1.0D+02 are allowed in FITS
+		return Double.parseDouble(value.replace('D', 'E').replace('d', 'e'));
+	}
+
+	public double getDouble(String keyword, double defaultValue) {
+		return hasKeyword(keyword) ? getDouble(keyword) : defaultValue;
+	}
+
+	public Map<String, String> getKeywords() {
+		return keywords;
+	}
+
+	/**
+	 * the raw header cards, one card per line.
+	 * @return
+	 */
+	public String getText() {
+		return text;
+	}
+
+	@Override public String toString() {
+		return keywords.toString();
+	}
+
+}
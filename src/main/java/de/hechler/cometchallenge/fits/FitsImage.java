@@ -0,0 +1,20 @@
+package de.hechler.cometchallenge.fits;
+
+import de.hechler.cometchallenge.image.GrayFrame;
+
+public class FitsImage {
+
+	private FitsHeader header;
+	private GrayFrame frame;
+
+	public FitsImage(FitsHeader header, GrayFrame frame) {
+		this.header = header;
+		this.frame = frame;
+	}
+
+	public FitsHeader getHeader() { return header; }
+	public GrayFrame getFrame() { return frame; }
+	public int getWidth() { return frame.getWidth(); }
+	public int getHeight() { return frame.getHeight(); }
+
+}
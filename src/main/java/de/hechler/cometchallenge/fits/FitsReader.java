@@ -0,0 +1,153 @@
+package de.hechler.cometchallenge.fits;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+
+import de.hechler.cometchallenge.image.GrayFrame;
+
+/**
+ * reads the primary HDU of a FITS file by memory mapping it.
+ * Only 2-dimensional images with BITPIX=16 are supported, which is what LASCO provides.
+ * The row order of the file is kept, so frame.get(x,y) is the pixel x of the y-th row in the file.
+ * Physical values outside of 0..65535 are clipped.
+ */
+public class FitsReader {
+
+	private FitsReader() {}
+
+	public static FitsImage read(Path path) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			FitsHeader header = readHeader(buffer);
+			GrayFrame frame = readData(header, buffer);
+			return new FitsImage(header, frame);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString(), e);
+		}
+	}
+
+	/**
+	 * check if the file already contains the complete header and data unit, e.g. while it is still written.
+	 * Only the header blocks are read, without mapping the file, which would lock it on Windows.
+	 * @param path
+	 * @return false if the file is missing, truncated or no FITS file
+	 */
+	public static boolean isComplete(Path path) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			LinkedHashMap<String, String> keywords = new LinkedHashMap<>();
+			StringBuilder text = new StringBuilder();
+			ByteBuffer block = ByteBuffer.allocate(FitsHeader.BLOCK_LENGTH);
+			long headerSize = 0;
+			boolean end = false;
+			while (!end) {
+				block.clear();
+				while (block.hasRemaining()) {
+					if (channel.read(block) == -1) {
+						return false;
+					}
+				}
+				headerSize += FitsHeader.BLOCK_LENGTH;
+				end = parseBlock(block.array(), keywords, text);
+			}
+			FitsHeader header = createHeader(keywords, text);
+			long dataSize = Math.abs(header.getInt("BITPIX", 0))/8;
+			for (int axis=1; axis<=header.getInt("NAXIS", 0); axis++) {
+				dataSize *= header.getInt("NAXIS"+axis, 0);
+			}
+			return channel.size() >= headerSize+dataSize;
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * reads the header blocks, after the call the buffer is positioned at the start of the data unit.
+	 * @param buffer
+	 * @return
+	 */
+	static FitsHeader readHeader(ByteBuffer buffer) {
+		LinkedHashMap<String, String> keywords = new LinkedHashMap<>();
+		StringBuilder text = new StringBuilder();
+		byte[] block = new byte[FitsHeader.BLOCK_LENGTH];
+		boolean end = false;
+		while (!end) {
+			if (buffer.remaining() < FitsHeader.BLOCK_LENGTH) {
+				throw new RuntimeException("FITS header without END card");
+			}
+			buffer.get(block);
+			end = parseBlock(block, keywords, text);
+		}
+		return createHeader(keywords, text);
+	}
+
+	/**
+	 * @return true if the block contains the END card
+	 */
+	private static boolean parseBlock(byte[] block, LinkedHashMap<String, String> keywords, StringBuilder text) {
+		for (int offset=0; offset<FitsHeader.BLOCK_LENGTH; offset+=FitsHeader.CARD_LENGTH) {
+			String card = new String(block, offset, FitsHeader.CARD_LENGTH, StandardCharsets.US_ASCII);
+			text.append(card).append('\n');
+			if (!FitsHeader.parseCard(keywords, card)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static FitsHeader createHeader(LinkedHashMap<String, String> keywords, StringBuilder text) {
+		if (!"T".equals(keywords.get("SIMPLE"))) {
+			throw new RuntimeException("not a FITS file, SIMPLE="+keywords.get("SIMPLE"));
+		}
+		return new FitsHeader(keywords, text.toString());
+	}
+
+	static GrayFrame readData(FitsHeader header, MappedByteBuffer buffer) {
+		int bitpix = header.getInt("BITPIX");
+		if (bitpix != 16) {
+			throw new RuntimeException("unsupported BITPIX "+bitpix);
+		}
+		int naxis = header.getInt("NAXIS");
+		if (naxis != 2) {
+			throw new RuntimeException("unsupported NAXIS "+naxis);
+		}
+		int w = header.getInt("NAXIS1");
+		int h = header.getInt("NAXIS2");
+		if (buffer.remaining() < 2L*w*h) {
+			throw new RuntimeException("FITS data unit truncated, expected "+(2L*w*h)+" bytes, found "+buffer.remaining());
+		}
+		double bzero = header.getDouble("BZERO", 0.0);
+		double bscale = header.getDouble("BSCALE", 1.0);
+		ShortBuffer data = buffer.asShortBuffer();
+		short[] row = new short[w];
+		GrayFrame frame = new GrayFrame(w, h);
+		char[] pixels = frame.getPixels();
+		boolean integral = (bscale == 1.0) && (bzero == Math.rint(bzero));
+		int izero = (int)bzero;
+		for (int y=0; y<h; y++) {
+			data.get(row);
+			int offset = frame.index(0, y);
+			if (integral) {
+				for (int x=0; x<w; x++) {
+					pixels[offset+x] = GrayFrame.clip(row[x] + izero);
+				}
+			}
+			else {
+				for (int x=0; x<w; x++) {
+					pixels[offset+x] = GrayFrame.clip((int)Math.round(bzero + bscale*row[x]));
+				}
+			}
+		}
+		frame.updateBorder();
+		return frame;
+	}
+
+}
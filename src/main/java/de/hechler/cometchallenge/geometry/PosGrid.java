@@ -0,0 +1,115 @@
+package de.hechler.cometchallenge.geometry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * uniform grid over a fixed list of positions for box queries.
+ * The positions are counting-sorted into cells, queries return the indexes into the list.
+ */
+public class PosGrid {
+
+	/** upper limit for the grid size, larger extents get larger cells */
+	private static final int MAX_CELLS_PER_AXIS = 1024;
+
+	private List<Pos> positions;
+	private double minX;
+	private double minY;
+	private double cellSize;
+	private int cols;
+	private int rows;
+	private int[] cellStart;
+	private int[] cellIndexes;
+
+	/**
+	 * @param positions
+	 * @param cellSize minimum cell size, best is the typical query radius
+	 */
+	public PosGrid(List<Pos> positions, double cellSize) {
+		this.positions = positions;
+		int n = positions.size();
+		double maxX = 0;
+		double maxY = 0;
+		minX = 0;
+		minY = 0;
+		for (int i=0; i<n; i++) {
+			Pos pos = positions.get(i);
+			if (i==0 || pos.getX()<minX) { minX = pos.getX(); }
+			if (i==0 || pos.getY()<minY) { minY = pos.getY(); }
+			if (i==0 || pos.getX()>maxX) { maxX = pos.getX(); }
+			if (i==0 || pos.getY()>maxY) { maxY = pos.getY(); }
+		}
+		this.cellSize = Math.max(1.0, Math.max(cellSize, Math.max(maxX-minX, maxY-minY)/MAX_CELLS_PER_AXIS));
+		this.cols = (int)((maxX-minX)/this.cellSize)+1;
+		this.rows = (int)((maxY-minY)/this.cellSize)+1;
+		int[] cellOf = new int[n];
+		cellStart = new int[cols*rows+1];
+		for (int i=0; i<n; i++) {
+			Pos pos = positions.get(i);
+			cellOf[i] = cellRow(pos.getY())*cols + cellCol(pos.getX());
+			cellStart[cellOf[i]+1]++;
+		}
+		for (int c=0; c<cols*rows; c++) {
+			cellStart[c+1] += cellStart[c];
+		}
+		// stable, so the indexes inside a cell are ascending
+		int[] cellFill = new int[cols*rows];
+		cellIndexes = new int[n];
+		for (int i=0; i<n; i++) {
+			int c = cellOf[i];
+			cellIndexes[cellStart[c]+cellFill[c]++] = i;
+		}
+	}
+
+	private int cellCol(double x) {
+		return Math.max(0, Math.min(cols-1, (int)Math.floor((x-minX)/cellSize)));
+	}
+
+	private int cellRow(double y) {
+		return Math.max(0, Math.min(rows-1, (int)Math.floor((y-minY)/cellSize)));
+	}
+
+	public int size() {
+		return positions.size();
+	}
+
+	public Pos get(int i) {
+		return positions.get(i);
+	}
+
+	/**
+	 * indexes of all positions in the cells touching the box (including fromXY, toXY), in ascending order.
+	 * The result can contain positions outside of the box, but never misses one inside.
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @return
+	 */
+	public int[] query(double fromX, double fromY, double toX, double toY) {
+		if (positions.isEmpty() || toX<minX || toY<minY || fromX>minX+cols*cellSize || fromY>minY+rows*cellSize) {
+			return new int[0];
+		}
+		int fromCol = cellCol(fromX);
+		int toCol = cellCol(toX);
+		int fromRow = cellRow(fromY);
+		int toRow = cellRow(toY);
+		int count = 0;
+		for (int r=fromRow; r<=toRow; r++) {
+			count += cellStart[r*cols+toCol+1] - cellStart[r*cols+fromCol];
+		}
+		int[] result = new int[count];
+		int pos = 0;
+		for (int r=fromRow; r<=toRow; r++) {
+			int start = cellStart[r*cols+fromCol];
+			int len = cellStart[r*cols+toCol+1] - start;
+			System.arraycopy(cellIndexes, start, result, pos, len);
+			pos += len;
+		}
+		if (fromRow != toRow || fromCol != toCol) {
+			Arrays.sort(result);
+		}
+		return result;
+	}
+
+}
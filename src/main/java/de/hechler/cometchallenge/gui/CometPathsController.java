@@ -4,13 +4,14 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import java.awt.Composite;
 
 import de.hechler.cometchallenge.CometPath;
 import de.hechler.cometchallenge.CometPos;
 import de.hechler.cometchallenge.MinMaxCounter;
-import de.hechler.cometchallenge.MinMaxStat;
+import de.hechler.cometchallenge.HistogramStat;
 import de.hechler.cometchallenge.analyze.ImageAnalyzer;
 import de.hechler.cometchallenge.analyze.SequenceAnalyzer;
 import de.hechler.cometchallenge.geometry.Pos;
@@ -32,7 +33,7 @@ public class CometPathsController implements ImageController {
 	
 	private boolean showInfo;
 	
-	private boolean showSpecialData;
+	private volatile boolean showSpecialData;
 
 	private static final String SPECIALIMAGE_DATA = "SPECIALIMAGE";
 
@@ -113,11 +114,7 @@ public class CometPathsController implements ImageController {
 
 	public BufferedImage getCurrentImage() {
 		if (showSpecialData) {
-			ImageAnalyzer ia = getCurrentImageAnalyzer();
-			if (!ia.hasData(SPECIALIMAGE_DATA)) {
-				calculateSpecialData(ia);
-			}
-			return ia.getData(SPECIALIMAGE_DATA);
+			return getSpecialData(getCurrentImageAnalyzer());
 		}
 		switch (overviewMode) {
 		case PATH: {
@@ -196,13 +193,7 @@ public class CometPathsController implements ImageController {
 
         BufferedImage concatImage = new BufferedImage(totalWidth, totalHeight, BufferedImage.TYPE_BYTE_GRAY);
 
-        MinMaxCounter range = new MinMaxCounter();
-        for (int i=0; i<analyzer.getLength(); i++) {
-        	ImageAnalyzer ia = analyzer.getImageAnalyzer(i);
-        	range.update(ia.calcMinMax(fromX, fromY, toX, toY));
-        }
-        
-        range = iaThis.calcMinMax(fromX, fromY, toX, toY); 
+        MinMaxCounter range = iaThis.calcMinMax(fromX, fromY, toX, toY); 
         
         logger.info("RANGE: "+range);
         
@@ -227,10 +218,10 @@ public class CometPathsController implements ImageController {
         for (int i=0; i<analyzer.getLength(); i++) {
         	ImageAnalyzer ia = analyzer.getImageAnalyzer(i);
             double factor = 1.0/ia.getExpTime();
-        	MinMaxStat allMM = ia.calcMinMaxStat(fromX, fromY, toX, toY);
             int centerDist = 1;
-    		MinMaxStat centerMM = ia.calcMinMaxStat(x-centerDist, y-centerDist, x+centerDist, y+centerDist);
-        	logger.info("IMG-"+(i+1)+".SIGMA:  center="+centerMM.getSigma()+"  all="+allMM.getSigma());
+            double centerSigma = ia.calcSigma(x-centerDist, y-centerDist, x+centerDist, y+centerDist);
+            double allSigma = ia.calcSigma(fromX, fromY, toX, toY);
+        	logger.info("IMG-"+(i+1)+".SIGMA:  center="+centerSigma+"  all="+allSigma);
 //        	logger.info("IMG-"+(i+1)+".STDERR: center="+centerMM.getStdErr()+"  all="+allMM.getStdErr());
 //        	logger.info("--- IMAGE "+(i+1)+" ---");
 //        	logger.info("EXPTIME: "+ia.getExpTime());
@@ -267,18 +258,21 @@ public class CometPathsController implements ImageController {
         double[][] matrixC = new double[height][width];
         double cntOther = analyzer.getLength()-1;
         
+        // frame by frame on the exposure normalized planes, outside of the frame the nearest pixel is used like in ia.get()
+        for (int i=0; i<analyzer.getLength(); i++) {
+        	ImageAnalyzer ia = analyzer.getImageAnalyzer(i);
+        	float[] normalized = ia.getNormalizedPixels();
+        	double[][] matrix = (ia == iaThis) ? matrixC : matrixNC;
+            for (int py=fromY; py<=toY; py++) {
+            	int row = Math.max(0, Math.min(ia.getHeight()-1, py))*ia.getWidth();
+                for (int px=fromX; px<=toX; px++) {
+                	matrix[py-fromY][px-fromX] += normalized[row+Math.max(0, Math.min(ia.getWidth()-1, px))];
+                }
+            }
+        }
         MinMaxCounter diffRange = new MinMaxCounter();
         for (int py=fromY; py<=toY; py++) {
             for (int px=fromX; px<=toX; px++) {
-                for (int i=0; i<analyzer.getLength(); i++) {
-                	ImageAnalyzer ia = analyzer.getImageAnalyzer(i);
-                	if (ia == iaThis) {
-                		matrixC[py-fromY][px-fromX] = 1.0*ia.get(px, py)/ia.getExpTime();
-                	}
-                	else {
-                		matrixNC[py-fromY][px-fromX] += 1.0*ia.get(px, py)/ia.getExpTime();
-                	}
-                }    
                 matrixC[py-fromY][px-fromX] -= matrixNC[py-fromY][px-fromX]/cntOther;
                 diffRange.update((int)(100.0*matrixC[py-fromY][px-fromX]));
             }
@@ -508,12 +502,20 @@ public class CometPathsController implements ImageController {
 			iw.updateControls();
 			return;
 		}
-		showSpecialData = true;
 		ImageAnalyzer ia = getCurrentImageAnalyzer();
+		// calculate off the event dispatch thread, updateControls() switches back to it
+		CompletableFuture.runAsync(() -> {
+			getSpecialData(ia);
+			showSpecialData = true;
+			iw.updateControls();
+		});
+	}
+
+	private synchronized BufferedImage getSpecialData(ImageAnalyzer ia) {
 		if (!ia.hasData(SPECIALIMAGE_DATA)) {
 			calculateSpecialData(ia);
 		}
-		iw.updateControls();
+		return ia.getData(SPECIALIMAGE_DATA);
 	}
 
 	private void calculateSpecialData(ImageAnalyzer ia) {
@@ -522,16 +524,12 @@ public class CometPathsController implements ImageController {
 		double pMin = 25.0;
 		double pMax = 50.0;
 		
-		double[][] matrix = new double[1024][1024];
-		MinMaxStat normalizeMMS = new MinMaxStat();
-        for (int y=0; y<1024; y++) {
-            for (int x=0; x<1024; x++) {
-            	MinMaxStat localMMS = ia.calcMinMaxStat(x-dist, y-dist, x+dist, y+dist);
-            	double heat = localMMS.getSigma(); 
-            	normalizeMMS.update(heat);
-            	matrix[y][x] = heat;
-            }
-        }
+		float[] matrix = ia.getLocalSigmas(dist);
+		// quarter DN resolution is enough for the display range
+		HistogramStat normalizeMMS = new HistogramStat(4.0);
+		for (float heat:matrix) {
+			normalizeMMS.update((double)heat);
+		}
         
         double qMin = normalizeMMS.getQuantil(pMin);
         double qMax = normalizeMMS.getQuantil(pMax);
@@ -543,7 +541,7 @@ public class CometPathsController implements ImageController {
 		int[] gray = new int[1];
         for (int y=0; y<1024; y++) {
             for (int x=0; x<1024; x++) {
-            	double value = Math.max(qMin,  matrix[y][x]);
+            	double value = Math.max(qMin,  matrix[y*1024+x]);
             	if (value > qMax) {
             		value = qMin;
             	}
@@ -0,0 +1,115 @@
+package de.hechler.cometchallenge.image;
+
+/**
+ * unsigned 16 bit gray values of one frame, stored row by row in a single array.
+ * The frame is surrounded by a border of replicated edge pixels, so kernels with a
+ * radius up to the border size can read around any pixel without range checks.
+ * The pixel (x,y) is found at index(x,y) = (y+border)*stride + (x+border).
+ */
+public class GrayFrame {
+
+	public static final int MAX_VALUE = 0xFFFF;
+
+	/** largest kernel radius used by the analyzers (11x11 local sigma) */
+	public static final int DEFAULT_BORDER = 5;
+
+	private final int width;
+	private final int height;
+	private final int border;
+	private final int stride;
+	private final char[] pixels;
+
+	public GrayFrame(int width, int height) {
+		this(width, height, DEFAULT_BORDER);
+	}
+
+	public GrayFrame(int width, int height, int border) {
+		this.width = width;
+		this.height = height;
+		this.border = border;
+		this.stride = width+2*border;
+		this.pixels = new char[stride*(height+2*border)];
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public int getBorder() { return border; }
+	public int getStride() { return stride; }
+
+	/**
+	 * direct access to the pixel array including the border, use index(x,y) to address a pixel.
+	 * @return
+	 */
+	public char[] getPixels() { return pixels; }
+
+	public int index(int x, int y) {
+		return (y+border)*stride+x+border;
+	}
+
+	public boolean isInRange(int x, int y) {
+		return (x>=0) && (x<width) && (y>=0) && (y<height);
+	}
+
+	/**
+	 * check if (x,y) is inside the frame or its border.
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean isInBorder(int x, int y) {
+		return (x>=-border) && (x<width+border) && (y>=-border) && (y<height+border);
+	}
+
+	/**
+	 * unchecked access, (x,y) has to be inside the frame or its border.
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public int get(int x, int y) {
+		return pixels[index(x, y)];
+	}
+
+	/**
+	 * set the pixel, values outside 0..65535 are clipped.
+	 * After changing pixels on the edge, updateBorder() has to be called.
+	 * @param x
+	 * @param y
+	 * @param value
+	 */
+	public void set(int x, int y, int value) {
+		pixels[index(x, y)] = clip(value);
+	}
+
+	/**
+	 * replicate the edge pixels into the border,
+	 * so that get(x,y) on the border returns the value of the nearest frame pixel.
+	 */
+	public void updateBorder() {
+		for (int y=0; y<height; y++) {
+			int offset = index(0, y);
+			char left = pixels[offset];
+			char right = pixels[offset+width-1];
+			for (int n=1; n<=border; n++) {
+				pixels[offset-n] = left;
+				pixels[offset+width-1+n] = right;
+			}
+		}
+		int firstRow = index(-border, 0);
+		int lastRow = index(-border, height-1);
+		for (int n=1; n<=border; n++) {
+			System.arraycopy(pixels, firstRow, pixels, firstRow-n*stride, stride);
+			System.arraycopy(pixels, lastRow, pixels, lastRow+n*stride, stride);
+		}
+	}
+
+	/**
+	 * clip to 0..65535, negative physical values (e.g. bias subtracted samples) become 0.
+	 * @param value
+	 * @return
+	 */
+	public static char clip(int value) {
+		return (char)Math.max(0, Math.min(MAX_VALUE, value));
+	}
+
+}
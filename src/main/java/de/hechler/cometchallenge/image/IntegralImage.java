@@ -0,0 +1,97 @@
+package de.hechler.cometchallenge.image;
+
+/**
+ * summed-area tables of the values and squared values of a GrayFrame, including its border.
+ * Sums over any rectangle inside the border are answered with four lookups.
+ */
+public class IntegralImage {
+
+	private final int width;
+	private final int height;
+	private final int border;
+	private final int stride;
+	private final long[] sums;
+	private final long[] sqSums;
+
+	public IntegralImage(GrayFrame frame) {
+		this.width = frame.getWidth();
+		this.height = frame.getHeight();
+		this.border = frame.getBorder();
+		int cols = width+2*border;
+		int rows = height+2*border;
+		this.stride = cols+1;
+		this.sums = new long[stride*(rows+1)];
+		this.sqSums = new long[stride*(rows+1)];
+		// table entry (r,c) is the sum of all pixels above row r and left of column c
+		char[] pixels = frame.getPixels();
+		int frameStride = frame.getStride();
+		for (int r=0; r<rows; r++) {
+			long rowSum = 0;
+			long rowSQSum = 0;
+			int src = r*frameStride;
+			int above = r*stride+1;
+			int dest = above+stride;
+			for (int c=0; c<cols; c++) {
+				long value = pixels[src+c];
+				rowSum += value;
+				rowSQSum += value*value;
+				sums[dest+c] = sums[above+c] + rowSum;
+				sqSums[dest+c] = sqSums[above+c] + rowSQSum;
+			}
+		}
+	}
+
+	/**
+	 * check if the rectangle (including fromXY, toXY) lies inside the frame or its border.
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @return
+	 */
+	public boolean contains(int fromX, int fromY, int toX, int toY) {
+		return (fromX>=-border) && (fromY>=-border) && (toX<width+border) && (toY<height+border);
+	}
+
+	public long getSum(int fromX, int fromY, int toX, int toY) {
+		return lookup(sums, fromX, fromY, toX, toY);
+	}
+
+	public long getSQSum(int fromX, int fromY, int toX, int toY) {
+		return lookup(sqSums, fromX, fromY, toX, toY);
+	}
+
+	private long lookup(long[] table, int fromX, int fromY, int toX, int toY) {
+		if (toX<fromX || toY<fromY) {
+			return 0;
+		}
+		int top = (fromY+border)*stride;
+		int bottom = (toY+border+1)*stride;
+		int left = fromX+border;
+		int right = toX+border+1;
+		return table[bottom+right] - table[top+right] - table[bottom+left] + table[top+left];
+	}
+
+	/**
+	 * population standard deviation from count, sum and sum of squares.
+	 * @param count
+	 * @param sum
+	 * @param sqSum
+	 * @return
+	 */
+	public static double calcSigma(long count, long sum, long sqSum) {
+		if (count == 0) {
+			return 0.0;
+		}
+		double nnVariance;
+		if (count < 46000) {
+			// count²*variance = count*sqSum-sum² is exact in 64 bit for 16 bit values
+			nnVariance = count*sqSum - sum*sum;
+		}
+		else {
+			nnVariance = count*(double)sqSum - sum*(double)sum;
+		}
+		return Math.sqrt(Math.max(0.0, nnVariance))/count;
+	}
+
+}
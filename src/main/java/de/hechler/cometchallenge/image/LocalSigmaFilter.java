@@ -0,0 +1,108 @@
+package de.hechler.cometchallenge.image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * standard deviation of the (2*radius+1)x(2*radius+1) window around every pixel of a GrayFrame.
+ * Each row band keeps running column sums of the values and squared values, which slide down
+ * one row at a time, every row is then scanned with a running sum over the columns.
+ * So the cost per pixel does not depend on the radius, the bands are processed in parallel.
+ * The windows may reach into the border, so the radius has to be <= frame.getBorder().
+ */
+public class LocalSigmaFilter {
+
+	private static final int BAND_ROWS = 64;
+
+	private LocalSigmaFilter() {}
+
+	/**
+	 * same as ImageAnalyzer.calcSigma(x-radius, y-radius, x+radius, y+radius) for every pixel.
+	 * @param frame
+	 * @param radius
+	 * @return sigmas, index is y*width+x
+	 */
+	public static float[] calcSigmas(GrayFrame frame, int radius) {
+		if (radius < 0 || radius > frame.getBorder()) {
+			throw new IllegalArgumentException("radius "+radius+" not in 0.."+frame.getBorder());
+		}
+		float[] result = new float[frame.getWidth()*frame.getHeight()];
+		ForkJoinPool.commonPool().invoke(new SigmaTask(frame, radius, result, 0, frame.getHeight()));
+		return result;
+	}
+
+	/**
+	 * fills the rows fromY..toY-1 of the result, bands larger than BAND_ROWS are split.
+	 */
+	private static class SigmaTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private GrayFrame frame;
+		private int radius;
+		private float[] result;
+		private int fromY;
+		private int toY;
+		public SigmaTask(GrayFrame frame, int radius, float[] result, int fromY, int toY) {
+			this.frame = frame;
+			this.radius = radius;
+			this.result = result;
+			this.fromY = fromY;
+			this.toY = toY;
+		}
+		@Override
+		protected void compute() {
+			if (toY-fromY <= BAND_ROWS) {
+				scan();
+				return;
+			}
+			int midY = (fromY+toY)/2;
+			invokeAll(new SigmaTask(frame, radius, result, fromY, midY), new SigmaTask(frame, radius, result, midY, toY));
+		}
+		private void scan() {
+			char[] pixels = frame.getPixels();
+			int stride = frame.getStride();
+			int width = frame.getWidth();
+			int k = 2*radius+1;
+			long count = (long)k*k;
+			// column sums of the window rows y-radius..y+radius for all columns of the plane,
+			// 11 squared 16 bit values already exceed an int
+			long[] colSums = new long[stride];
+			long[] colSQSums = new long[stride];
+			for (int r=fromY-radius; r<=fromY+radius; r++) {
+				int o = frame.index(0, r)-frame.getBorder();
+				for (int c=0; c<stride; c++) {
+					long value = pixels[o+c];
+					colSums[c] += value;
+					colSQSums[c] += value*value;
+				}
+			}
+			int left = frame.getBorder()-radius;
+			for (int y=fromY; y<toY; y++) {
+				if (y > fromY) {
+					int in = frame.index(0, y+radius)-frame.getBorder();
+					int out = frame.index(0, y-radius-1)-frame.getBorder();
+					for (int c=0; c<stride; c++) {
+						long valueIn = pixels[in+c];
+						long valueOut = pixels[out+c];
+						colSums[c] += valueIn-valueOut;
+						colSQSums[c] += valueIn*valueIn-valueOut*valueOut;
+					}
+				}
+				long sum = 0;
+				long sqSum = 0;
+				for (int c=left; c<left+k; c++) {
+					sum += colSums[c];
+					sqSum += colSQSums[c];
+				}
+				int dest = y*width;
+				for (int x=0; x<width; x++) {
+					if (x > 0) {
+						sum += colSums[left+x+k-1] - colSums[left+x-1];
+						sqSum += colSQSums[left+x+k-1] - colSQSums[left+x-1];
+					}
+					result[dest+x] = (float)IntegralImage.calcSigma(count, sum, sqSum);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package de.hechler.cometchallenge.image;
+
+/**
+ * separable sliding window filters on planes with the layout of GrayFrame.getPixels().
+ * Min and max use the van Herk / Gil-Werman scheme, sums use running sums,
+ * so the cost per pixel does not depend on the radius.
+ * Each filter is one dimensional, a result is only valid where the whole window
+ * lies inside the plane, e.g. for horizontal filters in the columns radius..stride-radius-1.
+ */
+public class SlidingWindowFilter {
+
+	private SlidingWindowFilter() {}
+
+	public static char[] horizontalMin(char[] src, int stride, int rows, int radius) {
+		return horizontalExtremum(src, stride, rows, radius, false);
+	}
+
+	public static char[] horizontalMax(char[] src, int stride, int rows, int radius) {
+		return horizontalExtremum(src, stride, rows, radius, true);
+	}
+
+	public static char[] verticalMin(char[] src, int stride, int rows, int radius) {
+		return verticalExtremum(src, stride, rows, radius, false);
+	}
+
+	public static char[] verticalMax(char[] src, int stride, int rows, int radius) {
+		return verticalExtremum(src, stride, rows, radius, true);
+	}
+
+	private static char pick(char a, char b, boolean max) {
+		return max ? (a>b ? a : b) : (a<b ? a : b);
+	}
+
+	private static char[] horizontalExtremum(char[] src, int stride, int rows, int radius, boolean max) {
+		int k = 2*radius+1;
+		char[] result = new char[src.length];
+		// g: extremum from the start of the block of k pixels, h: extremum up to the end of the block
+		char[] g = new char[stride];
+		char[] h = new char[stride];
+		for (int r=0; r<rows; r++) {
+			int o = r*stride;
+			for (int start=0; start<stride; start+=k) {
+				int end = Math.min(start+k, stride)-1;
+				g[start] = src[o+start];
+				for (int c=start+1; c<=end; c++) {
+					g[c] = pick(g[c-1], src[o+c], max);
+				}
+				h[end] = src[o+end];
+				for (int c=end-1; c>=start; c--) {
+					h[c] = pick(h[c+1], src[o+c], max);
+				}
+			}
+			for (int c=radius; c<stride-radius; c++) {
+				result[o+c] = pick(h[c-radius], g[c+radius], max);
+			}
+		}
+		return result;
+	}
+
+	private static char[] verticalExtremum(char[] src, int stride, int rows, int radius, boolean max) {
+		int k = 2*radius+1;
+		// same scheme as horizontal, processed row by row to keep memory access sequential
+		char[] g = new char[src.length];
+		char[] h = new char[src.length];
+		for (int r=0; r<rows; r++) {
+			int o = r*stride;
+			if (r%k == 0) {
+				System.arraycopy(src, o, g, o, stride);
+				continue;
+			}
+			for (int c=0; c<stride; c++) {
+				g[o+c] = pick(g[o-stride+c], src[o+c], max);
+			}
+		}
+		for (int r=rows-1; r>=0; r--) {
+			int o = r*stride;
+			if (r%k == k-1 || r == rows-1) {
+				System.arraycopy(src, o, h, o, stride);
+				continue;
+			}
+			for (int c=0; c<stride; c++) {
+				h[o+c] = pick(h[o+stride+c], src[o+c], max);
+			}
+		}
+		// row r only reads g of row r+radius, so the result can overwrite g from the top
+		int offset = radius*stride;
+		for (int r=radius; r<rows-radius; r++) {
+			int o = r*stride;
+			for (int c=0; c<stride; c++) {
+				g[o+c] = pick(h[o-offset+c], g[o+offset+c], max);
+			}
+		}
+		return g;
+	}
+
+	public static int[] horizontalSum(char[] src, int stride, int rows, int radius) {
+		int k = 2*radius+1;
+		int[] result = new int[src.length];
+		if (k > stride) {
+			// no window fits into a row
+			return result;
+		}
+		for (int r=0; r<rows; r++) {
+			int o = r*stride;
+			int sum = 0;
+			for (int c=0; c<k-1; c++) {
+				sum += src[o+c];
+			}
+			for (int c=radius; c<stride-radius; c++) {
+				sum += src[o+c+radius];
+				result[o+c] = sum;
+				sum -= src[o+c-radius];
+			}
+		}
+		return result;
+	}
+
+	public static int[] verticalSum(char[] src, int stride, int rows, int radius) {
+		int[] result = new int[src.length];
+		int[] sum = new int[stride];
+		for (int r=0; r<rows; r++) {
+			int o = r*stride;
+			for (int c=0; c<stride; c++) {
+				sum[c] += src[o+c];
+			}
+			if (r >= 2*radius) {
+				int dest = o-radius*stride;
+				int remove = o-2*radius*stride;
+				for (int c=0; c<stride; c++) {
+					result[dest+c] = sum[c];
+					sum[c] -= src[remove+c];
+				}
+			}
+		}
+		return result;
+	}
+
+	public static int[] verticalSum(int[] src, int stride, int rows, int radius) {
+		int[] result = new int[src.length];
+		int[] sum = new int[stride];
+		for (int r=0; r<rows; r++) {
+			int o = r*stride;
+			for (int c=0; c<stride; c++) {
+				sum[c] += src[o+c];
+			}
+			if (r >= 2*radius) {
+				int dest = o-radius*stride;
+				int remove = o-2*radius*stride;
+				for (int c=0; c<stride; c++) {
+					result[dest+c] = sum[c];
+					sum[c] -= src[remove+c];
+				}
+			}
+		}
+		return result;
+	}
+
+}
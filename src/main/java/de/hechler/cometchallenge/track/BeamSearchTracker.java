@@ -0,0 +1,197 @@
+package de.hechler.cometchallenge.track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.CometPos;
+import de.hechler.cometchallenge.analyze.ImageAnalyzer;
+import de.hechler.cometchallenge.analyze.SequenceAnalyzer;
+import de.hechler.cometchallenge.geometry.Pos;
+import de.hechler.cometchallenge.geometry.PosGrid;
+
+/**
+ * frame by frame path extension like SequenceAnalyzer.detectCometPaths(), but with a bounded set of hypotheses.
+ * After each frame hypotheses which end on the same spots are merged, and only the best beamWidth
+ * hypotheses starting in the same seed region are kept. Hypotheses moving faster than maxVelocity are dropped.
+ * Hypotheses are ranked by length, then by getDistError()+getLineError(), which is 0 up to three positions,
+ * then by getExtensionError(). Hypotheses with less than three positions have no error yet and are not pruned.
+ */
+public class BeamSearchTracker implements CometPathTracker {
+
+	public static final int DEFAULT_BEAM_WIDTH = 8;
+	/** px/hour */
+	public static final double DEFAULT_MAX_VELOCITY = 60.0;
+	public static final double DEFAULT_SEED_REGION_SIZE = 32.0;
+
+	/** hypotheses with the same last positions have converged */
+	private static final int MERGE_POSITIONS = 2;
+	/** shorter hypotheses can not be ranked by quality */
+	private static final int MIN_PRUNE_LENGTH = 3;
+
+	private static final double MILLIS_PER_HOUR = 3600000.0;
+
+	/** best first */
+	public static final Comparator<CometPath> RANKING = new Comparator<CometPath>() {
+		@Override
+		public int compare(CometPath cp1, CometPath cp2) {
+			if (cp1.getLength() != cp2.getLength()) {
+				return Integer.compare(cp2.getLength(), cp1.getLength());
+			}
+			int result = Double.compare(getError(cp1), getError(cp2));
+			if (result != 0) {
+				return result;
+			}
+			return Double.compare(cp1.getExtensionError(), cp2.getExtensionError());
+		}
+	};
+
+	private int beamWidth;
+	private double maxVelocity;
+	private double seedRegionSize;
+
+	public BeamSearchTracker() {
+		this(DEFAULT_BEAM_WIDTH, DEFAULT_MAX_VELOCITY, DEFAULT_SEED_REGION_SIZE);
+	}
+
+	/**
+	 * @param beamWidth number of hypotheses kept per seed region
+	 * @param maxVelocity maximum velocity in px/hour
+	 * @param seedRegionSize edge length of the seed regions in px
+	 */
+	public BeamSearchTracker(int beamWidth, double maxVelocity, double seedRegionSize) {
+		this.beamWidth = beamWidth;
+		this.maxVelocity = maxVelocity;
+		this.seedRegionSize = seedRegionSize;
+	}
+
+	@Override
+	public List<CometPath> detectCometPaths(SequenceAnalyzer analyzer) {
+		List<CometPath> cometPaths = new ArrayList<>();
+		List<CometPath> finishedCometPaths = new ArrayList<>();
+		for (int i=0; i<analyzer.getLength(); i++) {
+			ImageAnalyzer image = analyzer.getImageAnalyzer(i);
+			List<Pos> spots = image.getSpots();
+			Date timestamp = image.getTimestamp();
+			PosGrid spotGrid = new PosGrid(spots, CometPath.MH_TOLERATED);
+
+			List<CometPath> extendedCometPaths = new ArrayList<>();
+			for (CometPath lastCometPath:cometPaths) {
+				boolean found = extend(lastCometPath, timestamp, spotGrid, extendedCometPaths);
+				if (!found && lastCometPath.getLength() >= MIN_PATH_LENGTH) {
+					finishedCometPaths.add(lastCometPath);
+				}
+			}
+			cometPaths = new ArrayList<>();
+			for (Pos spot:spots) {
+				cometPaths.add(new CometPath(timestamp, spot));
+			}
+			cometPaths.addAll(prune(merge(extendedCometPaths)));
+		}
+		for (CometPath cometPath:cometPaths) {
+			if (cometPath.getLength() >= MIN_PATH_LENGTH) {
+				finishedCometPaths.add(cometPath);
+			}
+		}
+		Collections.sort(finishedCometPaths, RANKING);
+		return finishedCometPaths;
+	}
+
+	private boolean extend(CometPath cometPath, Date timestamp, PosGrid spotGrid, List<CometPath> result) {
+		CometPos firstCP = cometPath.getFirst();
+		double dtHours = (timestamp.getTime()-cometPath.getLast().getTimestamp().getTime())/MILLIS_PER_HOUR;
+		double totalHours = (timestamp.getTime()-firstCP.getTimestamp().getTime())/MILLIS_PER_HOUR;
+		Pos center = cometPath.getExpectedPos(timestamp);
+		double tolerance = CometPath.MH_TOLERATED + 1.0;
+		if (center == null) {
+			// a single position accepts every spot which can be reached
+			center = firstCP.getPosition();
+			tolerance = maxVelocity*dtHours;
+		}
+		boolean found = false;
+		int[] candidates = spotGrid.query(center.getX()-tolerance, center.getY()-tolerance, center.getX()+tolerance, center.getY()+tolerance);
+		for (int idx:candidates) {
+			Pos spot = spotGrid.get(idx);
+			if (spot.getDist(firstCP.getPosition()) > maxVelocity*totalHours) {
+				continue;
+			}
+			CometPath next = cometPath.createNewIfInRange(timestamp, spot);
+			if (next != null) {
+				found = true;
+				result.add(next);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * keep only the best of the hypotheses ending on the same positions.
+	 * @param cometPaths
+	 * @return
+	 */
+	private List<CometPath> merge(List<CometPath> cometPaths) {
+		Map<List<Pos>, CometPath> best = new LinkedHashMap<>();
+		for (CometPath cometPath:cometPaths) {
+			int n = Math.min(MERGE_POSITIONS, cometPath.getLength());
+			List<Pos> key = new ArrayList<>(n);
+			for (int i=n-1; i>=0; i--) {
+				key.add(cometPath.getCometPositionFromEnd(i).getPosition());
+			}
+			CometPath other = best.get(key);
+			if (other == null || RANKING.compare(cometPath, other) < 0) {
+				best.put(key, cometPath);
+			}
+		}
+		return new ArrayList<>(best.values());
+	}
+
+	/**
+	 * keep the best beamWidth hypotheses per seed region, hypotheses shorter than MIN_PRUNE_LENGTH are all kept.
+	 * @param cometPaths
+	 * @return
+	 */
+	private List<CometPath> prune(List<CometPath> cometPaths) {
+		Map<Long, List<CometPath>> regions = new HashMap<>();
+		List<List<CometPath>> regionList = new ArrayList<>();
+		List<CometPath> result = new ArrayList<>();
+		for (CometPath cometPath:cometPaths) {
+			if (cometPath.getLength() < MIN_PRUNE_LENGTH) {
+				result.add(cometPath);
+				continue;
+			}
+			Long region = getSeedRegion(cometPath.getFirst().getPosition());
+			List<CometPath> regionPaths = regions.get(region);
+			if (regionPaths == null) {
+				regionPaths = new ArrayList<>();
+				regions.put(region, regionPaths);
+				regionList.add(regionPaths);
+			}
+			regionPaths.add(cometPath);
+		}
+		for (List<CometPath> regionPaths:regionList) {
+			if (regionPaths.size() > beamWidth) {
+				Collections.sort(regionPaths, RANKING);
+				regionPaths = regionPaths.subList(0, beamWidth);
+			}
+			result.addAll(regionPaths);
+		}
+		return result;
+	}
+
+	private Long getSeedRegion(Pos pos) {
+		long col = (long)Math.floor(pos.getX()/seedRegionSize);
+		long row = (long)Math.floor(pos.getY()/seedRegionSize);
+		return (row << 32) ^ (col & 0xFFFFFFFFL);
+	}
+
+	public static double getError(CometPath cometPath) {
+		return cometPath.getDistError()+cometPath.getLineError();
+	}
+
+}
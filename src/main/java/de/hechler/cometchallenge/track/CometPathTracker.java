@@ -0,0 +1,19 @@
+package de.hechler.cometchallenge.track;
+
+import java.util.List;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.analyze.SequenceAnalyzer;
+
+/**
+ * links the spots of all frames of a sequence into comet paths.
+ * The spots have to be detected before, see SequenceAnalyzer.detectCometSpots().
+ */
+public interface CometPathTracker {
+
+	/** paths with less positions are not reported */
+	public static final int MIN_PATH_LENGTH = 5;
+
+	public List<CometPath> detectCometPaths(SequenceAnalyzer analyzer);
+
+}
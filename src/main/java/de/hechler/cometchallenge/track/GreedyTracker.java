@@ -0,0 +1,18 @@
+package de.hechler.cometchallenge.track;
+
+import java.util.List;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.analyze.SequenceAnalyzer;
+
+/**
+ * the original tracker, see SequenceAnalyzer.detectCometPaths().
+ */
+public class GreedyTracker implements CometPathTracker {
+
+	@Override
+	public List<CometPath> detectCometPaths(SequenceAnalyzer analyzer) {
+		return analyzer.detectCometPaths();
+	}
+
+}
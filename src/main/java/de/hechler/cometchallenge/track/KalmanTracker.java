@@ -0,0 +1,275 @@
+package de.hechler.cometchallenge.track;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.analyze.SequenceAnalyzer;
+import de.hechler.cometchallenge.geometry.Pos;
+import de.hechler.cometchallenge.geometry.PosGrid;
+
+/**
+ * multi target tracker with a constant velocity Kalman filter per track.
+ * The frames are processed one after the other with processFrame(), each track predicts its position
+ * and accepts spots inside a gate sized by its covariance. Spots are assigned by a global nearest
+ * neighbour step, the gated (track, spot) pairs are taken in order of the normalized distance,
+ * tracks with two or more hits first. Unassigned spots start new tracks.
+ * A track with at least two hits survives one frame without a spot.
+ * Tracks with MIN_PATH_LENGTH hits are confirmed, when they end they are reported as finished.
+ * x and y use the same noise model, so both axes share one 2x2 covariance (position, velocity).
+ * Time is measured in hours, positions in px. Not thread safe.
+ */
+public class KalmanTracker implements CometPathTracker {
+
+	/** px */
+	public static final double DEFAULT_MEASUREMENT_SIGMA = 1.0;
+	/** acceleration noise density in px^2/hour^3 */
+	public static final double DEFAULT_PROCESS_NOISE = 1.0;
+	/** px/hour */
+	public static final double DEFAULT_INITIAL_VELOCITY_SIGMA = 20.0;
+	/** gate in standard deviations of the innovation */
+	public static final double DEFAULT_GATE_SIGMA = 3.0;
+	public static final int MAX_MISSES = 1;
+
+	private static final double MILLIS_PER_HOUR = 3600000.0;
+
+	private double measurementVariance;
+	private double processNoise;
+	private double initialVelocityVariance;
+	private double gateSQ;
+
+	private List<Track> tracks;
+	private List<CometPath> confirmedPaths;
+	private List<CometPath> finishedPaths;
+
+	public KalmanTracker() {
+		this(DEFAULT_MEASUREMENT_SIGMA, DEFAULT_PROCESS_NOISE, DEFAULT_INITIAL_VELOCITY_SIGMA, DEFAULT_GATE_SIGMA);
+	}
+
+	/**
+	 * @param measurementSigma position error of a spot in px
+	 * @param processNoise acceleration noise density in px^2/hour^3
+	 * @param initialVelocitySigma velocity uncertainty of a new track in px/hour
+	 * @param gateSigma gate in standard deviations
+	 */
+	public KalmanTracker(double measurementSigma, double processNoise, double initialVelocitySigma, double gateSigma) {
+		this.measurementVariance = measurementSigma*measurementSigma;
+		this.processNoise = processNoise;
+		this.initialVelocityVariance = initialVelocitySigma*initialVelocitySigma;
+		this.gateSQ = gateSigma*gateSigma;
+		reset();
+	}
+
+	@Override
+	public List<CometPath> detectCometPaths(SequenceAnalyzer analyzer) {
+		reset();
+		for (int i=0; i<analyzer.getLength(); i++) {
+			processFrame(analyzer.getImageAnalyzer(i).getTimestamp(), analyzer.getImageAnalyzer(i).getSpots());
+		}
+		finish();
+		List<CometPath> result = pollFinishedPaths();
+		reset();
+		return result;
+	}
+
+	public void reset() {
+		tracks = new ArrayList<>();
+		confirmedPaths = new ArrayList<>();
+		finishedPaths = new ArrayList<>();
+	}
+
+	/**
+	 * predict all tracks to timestamp and assign the spots.
+	 * @param timestamp
+	 * @param spots
+	 */
+	public void processFrame(Date timestamp, List<Pos> spots) {
+		double t = timestamp.getTime()/MILLIS_PER_HOUR;
+		for (Track track:tracks) {
+			track.predict(t, processNoise);
+			track.assigned = false;
+		}
+		int[] spotTrack = assign(spots);
+
+		List<Track> nextTracks = new ArrayList<>();
+		for (Track track:tracks) {
+			if (track.assigned) {
+				nextTracks.add(track);
+				continue;
+			}
+			track.misses++;
+			if (track.hits >= 2 && track.misses <= MAX_MISSES) {
+				nextTracks.add(track);
+			}
+			else {
+				end(track);
+			}
+		}
+		for (int s=0; s<spots.size(); s++) {
+			int idx = spotTrack[s];
+			if (idx == -1) {
+				nextTracks.add(new Track(t, timestamp, spots.get(s), measurementVariance, initialVelocityVariance));
+			}
+			else {
+				Track track = tracks.get(idx);
+				track.update(timestamp, spots.get(s), measurementVariance);
+				if (track.hits == MIN_PATH_LENGTH) {
+					confirmedPaths.add(track.cometPath);
+				}
+			}
+		}
+		tracks = nextTracks;
+	}
+
+	/**
+	 * global nearest neighbour assignment of the spots to the predicted tracks.
+	 * @param spots
+	 * @return per spot the index of the track or -1
+	 */
+	private int[] assign(List<Pos> spots) {
+		int[] spotTrack = new int[spots.size()];
+		Arrays.fill(spotTrack, -1);
+		if (spots.isEmpty() || tracks.isEmpty()) {
+			return spotTrack;
+		}
+		PosGrid spotGrid = new PosGrid(spots, CometPath.MH_TOLERATED);
+		// gated pairs packed as (priority, normalized distance, track, spot) for sorting
+		List<double[]> pairs = new ArrayList<>();
+		for (int idx=0; idx<tracks.size(); idx++) {
+			Track track = tracks.get(idx);
+			double innovationVariance = track.p00+measurementVariance;
+			double radius = Math.sqrt(gateSQ*innovationVariance);
+			for (int s:spotGrid.query(track.x-radius, track.y-radius, track.x+radius, track.y+radius)) {
+				Pos spot = spotGrid.get(s);
+				double dx = spot.getX()-track.x;
+				double dy = spot.getY()-track.y;
+				double d2 = (dx*dx+dy*dy)/innovationVariance;
+				if (d2 <= gateSQ) {
+					pairs.add(new double[] { track.hits >= 2 ? 0 : 1, d2, idx, s });
+				}
+			}
+		}
+		pairs.sort((p1, p2) -> p1[0] != p2[0] ? Double.compare(p1[0], p2[0]) : Double.compare(p1[1], p2[1]));
+		for (double[] pair:pairs) {
+			Track track = tracks.get((int)pair[2]);
+			int s = (int)pair[3];
+			if (track.assigned || spotTrack[s] != -1) {
+				continue;
+			}
+			track.assigned = true;
+			spotTrack[s] = (int)pair[2];
+		}
+		return spotTrack;
+	}
+
+	private void end(Track track) {
+		if (track.hits >= MIN_PATH_LENGTH) {
+			finishedPaths.add(track.cometPath);
+		}
+	}
+
+	/**
+	 * end all tracks, the confirmed ones become finished.
+	 */
+	public void finish() {
+		for (Track track:tracks) {
+			end(track);
+		}
+		tracks = new ArrayList<>();
+	}
+
+	/**
+	 * paths which were confirmed since the last call, they still grow while their track is active.
+	 * @return
+	 */
+	public List<CometPath> pollConfirmedPaths() {
+		List<CometPath> result = confirmedPaths;
+		confirmedPaths = new ArrayList<>();
+		return result;
+	}
+
+	/**
+	 * confirmed paths whose track ended since the last call.
+	 * @return
+	 */
+	public List<CometPath> pollFinishedPaths() {
+		List<CometPath> result = finishedPaths;
+		finishedPaths = new ArrayList<>();
+		return result;
+	}
+
+	/**
+	 * @return the paths of the confirmed tracks which are still active
+	 */
+	public List<CometPath> getActivePaths() {
+		List<CometPath> result = new ArrayList<>();
+		for (Track track:tracks) {
+			if (track.hits >= MIN_PATH_LENGTH) {
+				result.add(track.cometPath);
+			}
+		}
+		return result;
+	}
+
+	public int getTrackCount() {
+		return tracks.size();
+	}
+
+	private static class Track {
+		CometPath cometPath;
+		int hits;
+		int misses;
+		boolean assigned;
+		/** time of the state in hours */
+		double t;
+		double x;
+		double y;
+		double vx;
+		double vy;
+		/** covariance of (position, velocity), the same for x and y */
+		double p00;
+		double p01;
+		double p11;
+
+		public Track(double t, Date timestamp, Pos spot, double measurementVariance, double initialVelocityVariance) {
+			this.cometPath = new CometPath(timestamp, spot);
+			this.hits = 1;
+			this.t = t;
+			this.x = spot.getX();
+			this.y = spot.getY();
+			this.p00 = measurementVariance;
+			this.p11 = initialVelocityVariance;
+		}
+
+		public void predict(double newT, double processNoise) {
+			double dt = newT-t;
+			x += vx*dt;
+			y += vy*dt;
+			p00 += 2*dt*p01 + dt*dt*p11 + processNoise*dt*dt*dt/3;
+			p01 += dt*p11 + processNoise*dt*dt/2;
+			p11 += processNoise*dt;
+			t = newT;
+		}
+
+		public void update(Date timestamp, Pos spot, double measurementVariance) {
+			double innovationVariance = p00+measurementVariance;
+			double k0 = p00/innovationVariance;
+			double k1 = p01/innovationVariance;
+			double dx = spot.getX()-x;
+			double dy = spot.getY()-y;
+			x += k0*dx;
+			y += k0*dy;
+			vx += k1*dx;
+			vy += k1*dy;
+			p11 -= k1*p01;
+			p01 *= 1-k0;
+			p00 *= 1-k0;
+			cometPath.add(timestamp, spot);
+			hits++;
+			misses = 0;
+		}
+	}
+
+}
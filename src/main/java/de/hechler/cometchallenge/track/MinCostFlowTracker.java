@@ -0,0 +1,327 @@
+package de.hechler.cometchallenge.track;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.analyze.SequenceAnalyzer;
+import de.hechler.cometchallenge.geometry.Pos;
+import de.hechler.cometchallenge.geometry.PosGrid;
+
+/**
+ * global linking of the spots of all frames as a min cost flow problem.
+ * Each spot is an edge in -> out with capacity 1 and a negative cost (the reward for using it),
+ * source -> in and out -> sink have the costs to start and end a track, out -> in of spots in
+ * the next maxFrameGap frames have the link costs. Tracks are extracted one by one with successive
+ * shortest paths (Dijkstra on reduced costs) as long as they lower the total cost, so every spot
+ * is used by at most one track.
+ * The link cost grows with the squared step length, a three frame motion term can not be expressed
+ * by the edges, so the extracted tracks are checked against a constant velocity fit with getFitError().
+ */
+public class MinCostFlowTracker implements CometPathTracker {
+
+	/** px/hour */
+	public static final double DEFAULT_MAX_VELOCITY = 60.0;
+	/** expected step length between frames in px */
+	public static final double DEFAULT_STEP_SIGMA = 5.0;
+	public static final int DEFAULT_MAX_FRAME_GAP = 2;
+
+	private static final double ENTRY_COST = 5.0;
+	private static final double EXIT_COST = 5.0;
+	private static final double DETECTION_REWARD = 4.0;
+	/** additional cost per skipped frame */
+	private static final double GAP_COST = 2.0;
+	/** mean squared distance from the constant velocity fit, same limit as the line check in CometPath.createNewIfInRange() */
+	private static final double MAX_FIT_ERROR = 2.0;
+
+	private static final double MILLIS_PER_HOUR = 3600000.0;
+	private static final double INF = Double.POSITIVE_INFINITY;
+
+	private double maxVelocity;
+	private double stepSigma;
+	private int maxFrameGap;
+
+	public MinCostFlowTracker() {
+		this(DEFAULT_MAX_VELOCITY, DEFAULT_STEP_SIGMA, DEFAULT_MAX_FRAME_GAP);
+	}
+
+	/**
+	 * @param maxVelocity maximum velocity in px/hour
+	 * @param stepSigma expected step length between frames in px
+	 * @param maxFrameGap max. frame distance of linked spots
+	 */
+	public MinCostFlowTracker(double maxVelocity, double stepSigma, int maxFrameGap) {
+		this.maxVelocity = maxVelocity;
+		this.stepSigma = stepSigma;
+		this.maxFrameGap = maxFrameGap;
+	}
+
+	@Override
+	public List<CometPath> detectCometPaths(SequenceAnalyzer analyzer) {
+		int frames = analyzer.getLength();
+		List<Pos> spots = new ArrayList<>();
+		List<Date> timestamps = new ArrayList<>();
+		int[] frameStart = new int[frames+1];
+		PosGrid[] grids = new PosGrid[frames];
+		for (int f=0; f<frames; f++) {
+			List<Pos> frameSpots = analyzer.getImageAnalyzer(f).getSpots();
+			Date timestamp = analyzer.getImageAnalyzer(f).getTimestamp();
+			grids[f] = new PosGrid(frameSpots, CometPath.MH_TOLERATED);
+			frameStart[f+1] = frameStart[f]+frameSpots.size();
+			spots.addAll(frameSpots);
+			for (int i=0; i<frameSpots.size(); i++) {
+				timestamps.add(timestamp);
+			}
+		}
+
+		// nodes: source, sink, then in/out per spot, in frame order which is a topological order
+		int n = spots.size();
+		FlowGraph graph = new FlowGraph(2+2*n);
+		int source = 0;
+		int sink = 1;
+		for (int i=0; i<n; i++) {
+			graph.addEdge(source, in(i), ENTRY_COST);
+			graph.addEdge(in(i), out(i), -DETECTION_REWARD);
+			graph.addEdge(out(i), sink, EXIT_COST);
+		}
+		for (int a=0; a<frames; a++) {
+			for (int b=a+1; b<=Math.min(a+maxFrameGap, frames-1); b++) {
+				double dt = (timestamps.get(frameStart[b]).getTime()-timestamps.get(frameStart[a]).getTime())/MILLIS_PER_HOUR;
+				double maxDist = maxVelocity*dt;
+				for (int i=frameStart[a]; i<frameStart[a+1]; i++) {
+					Pos pos = spots.get(i);
+					for (int j:grids[b].query(pos.getX()-maxDist, pos.getY()-maxDist, pos.getX()+maxDist, pos.getY()+maxDist)) {
+						double sqDist = pos.getSQDist(grids[b].get(j));
+						if (sqDist > maxDist*maxDist) {
+							continue;
+						}
+						int gap = b-a;
+						double cost = sqDist/(2*stepSigma*stepSigma*gap*gap) + GAP_COST*(gap-1);
+						graph.addEdge(out(i), in(frameStart[b]+j), cost);
+					}
+				}
+			}
+		}
+
+		graph.solve(source, sink);
+
+		List<CometPath> result = new ArrayList<>();
+		for (int e=graph.head[source]; e!=-1; e=graph.next[e]) {
+			if ((e & 1) != 0 || graph.cap[e] != 0) {
+				continue;
+			}
+			int spot = (graph.to[e]-2)/2;
+			CometPath cometPath = new CometPath(timestamps.get(spot), spots.get(spot));
+			int succ = graph.getFlowSuccessor(out(spot));
+			while (succ != sink) {
+				spot = (succ-2)/2;
+				cometPath.add(timestamps.get(spot), spots.get(spot));
+				succ = graph.getFlowSuccessor(out(spot));
+			}
+			if (cometPath.getLength() >= MIN_PATH_LENGTH && cometPath.getFitError() <= MAX_FIT_ERROR) {
+				result.add(cometPath);
+			}
+		}
+		return result;
+	}
+
+	private static int in(int spot) {
+		return 2+2*spot;
+	}
+
+	private static int out(int spot) {
+		return 3+2*spot;
+	}
+
+	/**
+	 * residual graph with unit capacities on primitive arrays, each edge e has its reverse edge e^1.
+	 */
+	private static class FlowGraph {
+		int nodes;
+		int edges;
+		int[] head;
+		int[] next = new int[1024];
+		int[] to = new int[1024];
+		int[] cap = new int[1024];
+		double[] cost = new double[1024];
+
+		public FlowGraph(int nodes) {
+			this.nodes = nodes;
+			head = new int[nodes];
+			Arrays.fill(head, -1);
+		}
+
+		public void addEdge(int from, int dest, double edgeCost) {
+			if (edges+2 > to.length) {
+				int size = 2*to.length;
+				next = Arrays.copyOf(next, size);
+				to = Arrays.copyOf(to, size);
+				cap = Arrays.copyOf(cap, size);
+				cost = Arrays.copyOf(cost, size);
+			}
+			add(from, dest, 1, edgeCost);
+			add(dest, from, 0, -edgeCost);
+		}
+
+		private void add(int from, int dest, int capacity, double edgeCost) {
+			to[edges] = dest;
+			cap[edges] = capacity;
+			cost[edges] = edgeCost;
+			next[edges] = head[from];
+			head[from] = edges++;
+		}
+
+		/**
+		 * the node reached by the edge with flow leaving node.
+		 */
+		public int getFlowSuccessor(int node) {
+			for (int e=head[node]; e!=-1; e=next[e]) {
+				if ((e & 1) == 0 && cap[e] == 0) {
+					return to[e];
+				}
+			}
+			throw new RuntimeException("no flow from node "+node);
+		}
+
+		/**
+		 * augment shortest source-sink paths while they have negative cost.
+		 * The node numbers have to be a topological order of the initial graph.
+		 */
+		public void solve(int source, int sink) {
+			double[] potential = initialPotential(source);
+			double[] dist = new double[nodes];
+			int[] viaEdge = new int[nodes];
+			NodeHeap heap = new NodeHeap(nodes);
+			while (true) {
+				Arrays.fill(dist, INF);
+				Arrays.fill(viaEdge, -1);
+				dist[source] = 0;
+				heap.push(source, 0);
+				while (!heap.isEmpty()) {
+					double d = heap.topKey();
+					int u = heap.pop();
+					if (d > dist[u]) {
+						continue;
+					}
+					for (int e=head[u]; e!=-1; e=next[e]) {
+						if (cap[e] == 0) {
+							continue;
+						}
+						int v = to[e];
+						// reduced costs are >= 0 up to rounding
+						double nd = d + Math.max(0.0, cost[e]+potential[u]-potential[v]);
+						if (nd < dist[v]) {
+							dist[v] = nd;
+							viaEdge[v] = e;
+							heap.push(v, nd);
+						}
+					}
+				}
+				if (dist[sink] == INF) {
+					return;
+				}
+				double pathCost = dist[sink]+potential[sink]-potential[source];
+				if (pathCost >= 0) {
+					return;
+				}
+				for (int v=0; v<nodes; v++) {
+					if (dist[v] != INF) {
+						potential[v] += dist[v];
+					}
+				}
+				for (int v=sink; v!=source; v=to[viaEdge[v]^1]) {
+					cap[viaEdge[v]]--;
+					cap[viaEdge[v]^1]++;
+				}
+			}
+		}
+
+		/**
+		 * shortest distances from source in the initial graph, which is acyclic.
+		 */
+		private double[] initialPotential(int source) {
+			double[] result = new double[nodes];
+			Arrays.fill(result, INF);
+			result[source] = 0;
+			// source first, then the spot nodes in order, the sink (node 1) has no outgoing edges
+			for (int u=0; u<nodes; u++) {
+				if (result[u] == INF) {
+					continue;
+				}
+				for (int e=head[u]; e!=-1; e=next[e]) {
+					if (cap[e] != 0 && result[u]+cost[e] < result[to[e]]) {
+						result[to[e]] = result[u]+cost[e];
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * binary min heap of (key, node) with lazy deletion.
+	 */
+	private static class NodeHeap {
+		private double[] keys;
+		private int[] values;
+		private int size;
+
+		public NodeHeap(int capacity) {
+			keys = new double[Math.max(16, capacity)];
+			values = new int[keys.length];
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public double topKey() {
+			return keys[0];
+		}
+
+		public void push(int value, double key) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, 2*size);
+				values = Arrays.copyOf(values, 2*size);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i-1)/2;
+				if (keys[parent] <= key) {
+					break;
+				}
+				keys[i] = keys[parent];
+				values[i] = values[parent];
+				i = parent;
+			}
+			keys[i] = key;
+			values[i] = value;
+		}
+
+		public int pop() {
+			int result = values[0];
+			size--;
+			double key = keys[size];
+			int value = values[size];
+			int i = 0;
+			while (2*i+1 < size) {
+				int child = 2*i+1;
+				if (child+1 < size && keys[child+1] < keys[child]) {
+					child++;
+				}
+				if (keys[child] >= key) {
+					break;
+				}
+				keys[i] = keys[child];
+				values[i] = values[child];
+				i = child;
+			}
+			keys[i] = key;
+			values[i] = value;
+			return result;
+		}
+	}
+
+}
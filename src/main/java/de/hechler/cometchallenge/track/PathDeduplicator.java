@@ -0,0 +1,145 @@
+package de.hechler.cometchallenge.track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.CometPos;
+import de.hechler.cometchallenge.geometry.Pos;
+
+/**
+ * removes paths which follow the same trajectory as a better path.
+ * Each path is hashed by the quantized velocity of its least squares fit and by its fitted position
+ * at the middle of the time span of all paths, so parallel paths and paths far apart do not share a cell.
+ * The paths are processed
+ * best first (BeamSearchTracker.RANKING), a path is dropped if a kept path in the same or a neighbouring
+ * cell in all four dimensions has the positions inside its time span on average within POSITION_TOLERANCE, otherwise it is kept.
+ * The positions are only compared over the overlapping time span, so no fit is extrapolated
+ * outside of the positions it was calculated from.
+ */
+public class PathDeduplicator {
+
+	/** px/hour */
+	private static final double VELOCITY_CELL = 2.0;
+	/** px, large enough for the extrapolation of a short noisy fit to the reference time */
+	private static final double POSITION_CELL = 32.0;
+	/** mean distance in px of the positions from the trajectory of the kept path */
+	private static final double POSITION_TOLERANCE = 2.0;
+
+	private PathDeduplicator() {}
+
+	/**
+	 * @param cometPaths
+	 * @return the representatives, best first
+	 */
+	public static List<CometPath> suppressDuplicates(List<CometPath> cometPaths) {
+		List<CometPath> candidates = new ArrayList<>(cometPaths);
+		Collections.sort(candidates, BeamSearchTracker.RANKING);
+		Date reference = getReferenceTime(candidates);
+
+		List<CometPath> result = new ArrayList<>();
+		Map<Long, List<CometPath>> cells = new HashMap<>();
+		for (CometPath cometPath:candidates) {
+			int[] cell = getCell(cometPath, reference);
+			if (cell == null) {
+				result.add(cometPath);
+				continue;
+			}
+			if (!hasDuplicate(cometPath, cell, cells)) {
+				result.add(cometPath);
+				Long key = pack(cell[0], cell[1], cell[2], cell[3]);
+				List<CometPath> kept = cells.get(key);
+				if (kept == null) {
+					kept = new ArrayList<>();
+					cells.put(key, kept);
+				}
+				kept.add(cometPath);
+			}
+		}
+		return result;
+	}
+
+	private static boolean hasDuplicate(CometPath cometPath, int[] cell, Map<Long, List<CometPath>> cells) {
+		for (int dvx=-1; dvx<=1; dvx++) {
+			for (int dvy=-1; dvy<=1; dvy++) {
+				for (int dx=-1; dx<=1; dx++) {
+					for (int dy=-1; dy<=1; dy++) {
+						List<CometPath> kept = cells.get(pack(cell[0]+dvx, cell[1]+dvy, cell[2]+dx, cell[3]+dy));
+						if (kept == null) {
+							continue;
+						}
+						for (CometPath other:kept) {
+							if (isDuplicate(cometPath, other)) {
+								return true;
+							}
+						}
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * check if the positions of cometPath inside the time span of other are on average close to the trajectory of other.
+	 * Paths without overlapping positions are no duplicates.
+	 */
+	private static boolean isDuplicate(CometPath cometPath, CometPath other) {
+		Date from = other.getFirst().getTimestamp();
+		Date to = other.getLast().getTimestamp();
+		double sumDist = 0;
+		int count = 0;
+		for (int i=0; i<cometPath.getLength(); i++) {
+			CometPos cometPos = cometPath.getCometPosition(i);
+			Date timestamp = cometPos.getTimestamp();
+			if (timestamp.before(from) || timestamp.after(to)) {
+				continue;
+			}
+			sumDist += cometPos.getPosition().getDist(other.getFittedPos(timestamp));
+			count++;
+		}
+		return count > 0 && sumDist <= POSITION_TOLERANCE*count;
+	}
+
+	/**
+	 * @return the middle between the first and the last timestamp of all paths
+	 */
+	private static Date getReferenceTime(List<CometPath> cometPaths) {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (CometPath cometPath:cometPaths) {
+			min = Math.min(min, cometPath.getFirst().getTimestamp().getTime());
+			max = Math.max(max, cometPath.getLast().getTimestamp().getTime());
+		}
+		return new Date(min+(max-min)/2);
+	}
+
+	/**
+	 * @return {vx, vy, x, y} quantized, the position fitted at the reference time, or null for paths without velocity
+	 */
+	private static int[] getCell(CometPath cometPath, Date reference) {
+		double[] velocity = cometPath.getFittedVelocity();
+		if (velocity == null) {
+			return null;
+		}
+		Pos pos = cometPath.getFittedPos(reference);
+		return new int[] {
+			(int)Math.floor(velocity[0]/VELOCITY_CELL),
+			(int)Math.floor(velocity[1]/VELOCITY_CELL),
+			(int)Math.floor(pos.getX()/POSITION_CELL),
+			(int)Math.floor(pos.getY()/POSITION_CELL)
+		};
+	}
+
+	/**
+	 * 16 bits per dimension, cells which collide only cost some comparisons.
+	 */
+	private static Long pack(int qvx, int qvy, int qx, int qy) {
+		return ((long)(qvx & 0xFFFF) << 48) | ((long)(qvy & 0xFFFF) << 32) | ((long)(qx & 0xFFFF) << 16) | (qy & 0xFFFFL);
+	}
+
+}
@@ -0,0 +1,27 @@
+package de.hechler.cometchallenge.track;
+
+/**
+ * the available path trackers with their default settings.
+ */
+public enum TrackerMode {
+
+	GREEDY, BEAM, VOTING, KALMAN, MIN_COST_FLOW;
+
+	public CometPathTracker createTracker() {
+		switch (this) {
+		case GREEDY:
+			return new GreedyTracker();
+		case BEAM:
+			return new BeamSearchTracker();
+		case VOTING:
+			return new VelocityVotingTracker();
+		case KALMAN:
+			return new KalmanTracker();
+		case MIN_COST_FLOW:
+			return new MinCostFlowTracker();
+		default:
+			throw new RuntimeException("unknown tracker mode "+this);
+		}
+	}
+
+}
@@ -0,0 +1,359 @@
+package de.hechler.cometchallenge.track;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.analyze.SequenceAnalyzer;
+import de.hechler.cometchallenge.geometry.Pos;
+import de.hechler.cometchallenge.geometry.PosGrid;
+
+/**
+ * Hough-like tracker for comets with constant velocity.
+ * Each pair of spots in nearby frames votes for the trajectory (vx, vy, x0, y0) through both spots,
+ * x0/y0 being the position at the middle of the sequence. The votes are counted per quantized cell,
+ * the cells with most votes are turned into paths by collecting the spots along the trajectory.
+ * The voting is split by frames and runs in the common fork/join pool.
+ */
+public class VelocityVotingTracker implements CometPathTracker {
+
+	/** px/hour */
+	public static final double DEFAULT_MAX_VELOCITY = 60.0;
+	/** px/hour */
+	public static final double DEFAULT_VELOCITY_BIN = 2.0;
+	public static final double DEFAULT_POSITION_BIN = 8.0;
+	/** pairs are only built from frames up to this distance */
+	public static final int DEFAULT_MAX_FRAME_GAP = 4;
+	public static final int DEFAULT_MIN_VOTES = 3;
+
+	/** max. distance of a spot from the fitted trajectory */
+	private static final double SUPPORT_TOLERANCE = 2.0;
+	private static final int MAX_PEAKS = 10000;
+	private static final double MILLIS_PER_HOUR = 3600000.0;
+
+	private double maxVelocity;
+	private double velocityBin;
+	private double positionBin;
+	private int maxFrameGap;
+	private int minVotes;
+
+	public VelocityVotingTracker() {
+		this(DEFAULT_MAX_VELOCITY, DEFAULT_VELOCITY_BIN, DEFAULT_POSITION_BIN, DEFAULT_MAX_FRAME_GAP, DEFAULT_MIN_VOTES);
+	}
+
+	/**
+	 * @param maxVelocity maximum velocity in px/hour
+	 * @param velocityBin cell size for vx, vy in px/hour
+	 * @param positionBin cell size for x0, y0 in px
+	 * @param maxFrameGap max. frame distance of voting pairs
+	 * @param minVotes min. votes of a cell to become a candidate
+	 */
+	public VelocityVotingTracker(double maxVelocity, double velocityBin, double positionBin, int maxFrameGap, int minVotes) {
+		this.maxVelocity = maxVelocity;
+		this.velocityBin = velocityBin;
+		this.positionBin = positionBin;
+		this.maxFrameGap = maxFrameGap;
+		this.minVotes = minVotes;
+	}
+
+	@Override
+	public List<CometPath> detectCometPaths(SequenceAnalyzer analyzer) {
+		Spots spots = new Spots(analyzer);
+		VoteMap votes = ForkJoinPool.commonPool().invoke(new VoteTask(spots, 0, spots.frames));
+		long[] peaks = votes.getPeaks(minVotes, MAX_PEAKS);
+
+		List<CometPath> result = new ArrayList<>();
+		boolean[] used = new boolean[spots.xs.length];
+		for (long peak:peaks) {
+			double[] trajectory = decode(peak);
+			int[] support = collectSupport(spots, trajectory, used, positionBin, velocityBin);
+			if (support.length < MIN_PATH_LENGTH) {
+				continue;
+			}
+			// refine with a least squares fit through the supporting spots
+			trajectory = fit(spots, support);
+			support = collectSupport(spots, trajectory, used, SUPPORT_TOLERANCE, 0.0);
+			if (support.length < MIN_PATH_LENGTH) {
+				continue;
+			}
+			CometPath cometPath = null;
+			for (int idx:support) {
+				used[idx] = true;
+				Date timestamp = spots.timestamps[spots.frameOf[idx]];
+				Pos pos = spots.positions[idx];
+				if (cometPath == null) {
+					cometPath = new CometPath(timestamp, pos);
+				}
+				else {
+					cometPath.add(timestamp, pos);
+				}
+			}
+			result.add(cometPath);
+		}
+		return result;
+	}
+
+	/**
+	 * the nearest unused spot per frame within tolerance+|t|*velocityTolerance of the trajectory.
+	 * @return global spot indexes, in frame order
+	 */
+	private int[] collectSupport(Spots spots, double[] trajectory, boolean[] used, double tolerance, double velocityTolerance) {
+		int[] result = new int[spots.frames];
+		int count = 0;
+		for (int f=0; f<spots.frames; f++) {
+			double t = spots.hours[f];
+			double x = trajectory[2]+trajectory[0]*t;
+			double y = trajectory[3]+trajectory[1]*t;
+			double maxDist = tolerance+Math.abs(t)*velocityTolerance;
+			int best = -1;
+			double bestSQDist = maxDist*maxDist;
+			for (int i:spots.grids[f].query(x-maxDist, y-maxDist, x+maxDist, y+maxDist)) {
+				int idx = spots.frameStart[f]+i;
+				double dx = spots.xs[idx]-x;
+				double dy = spots.ys[idx]-y;
+				double sqDist = dx*dx+dy*dy;
+				if (!used[idx] && sqDist <= bestSQDist) {
+					best = idx;
+					bestSQDist = sqDist;
+				}
+			}
+			if (best != -1) {
+				result[count++] = best;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * least squares fit of x(t), y(t).
+	 * @return {vx, vy, x0, y0}
+	 */
+	private double[] fit(Spots spots, int[] support) {
+		int n = support.length;
+		double sumT = 0;
+		double sumX = 0;
+		double sumY = 0;
+		for (int idx:support) {
+			sumT += spots.hours[spots.frameOf[idx]];
+			sumX += spots.xs[idx];
+			sumY += spots.ys[idx];
+		}
+		double meanT = sumT/n;
+		double meanX = sumX/n;
+		double meanY = sumY/n;
+		double sTT = 0;
+		double sTX = 0;
+		double sTY = 0;
+		for (int idx:support) {
+			double dt = spots.hours[spots.frameOf[idx]]-meanT;
+			sTT += dt*dt;
+			sTX += dt*(spots.xs[idx]-meanX);
+			sTY += dt*(spots.ys[idx]-meanY);
+		}
+		double vx = sTT == 0 ? 0 : sTX/sTT;
+		double vy = sTT == 0 ? 0 : sTY/sTT;
+		return new double[] { vx, vy, meanX-vx*meanT, meanY-vy*meanT };
+	}
+
+	private long encode(double vx, double vy, double x0, double y0) {
+		long qvx = Math.round(vx/velocityBin);
+		long qvy = Math.round(vy/velocityBin);
+		long qx0 = Math.round(x0/positionBin);
+		long qy0 = Math.round(y0/positionBin);
+		return ((qvx & 0xFFFF) << 48) | ((qvy & 0xFFFF) << 32) | ((qx0 & 0xFFFF) << 16) | (qy0 & 0xFFFF);
+	}
+
+	/**
+	 * @return center of the cell {vx, vy, x0, y0}
+	 */
+	private double[] decode(long key) {
+		return new double[] {
+			(short)(key >>> 48)*velocityBin,
+			(short)(key >>> 32)*velocityBin,
+			(short)(key >>> 16)*positionBin,
+			(short)key*positionBin
+		};
+	}
+
+	/**
+	 * the spots of all frames as primitive arrays, times in hours relative to the middle of the sequence.
+	 */
+	private static class Spots {
+		int frames;
+		Date[] timestamps;
+		double[] hours;
+		PosGrid[] grids;
+		int[] frameStart;
+		int[] frameOf;
+		Pos[] positions;
+		double[] xs;
+		double[] ys;
+		public Spots(SequenceAnalyzer analyzer) {
+			frames = analyzer.getLength();
+			timestamps = new Date[frames];
+			hours = new double[frames];
+			grids = new PosGrid[frames];
+			frameStart = new int[frames+1];
+			List<Pos> all = new ArrayList<>();
+			for (int f=0; f<frames; f++) {
+				List<Pos> spots = analyzer.getImageAnalyzer(f).getSpots();
+				timestamps[f] = analyzer.getImageAnalyzer(f).getTimestamp();
+				grids[f] = new PosGrid(spots, CometPath.MH_TOLERATED);
+				frameStart[f+1] = frameStart[f]+spots.size();
+				all.addAll(spots);
+			}
+			long refTime = frames == 0 ? 0 : (timestamps[0].getTime()+timestamps[frames-1].getTime())/2;
+			for (int f=0; f<frames; f++) {
+				hours[f] = (timestamps[f].getTime()-refTime)/MILLIS_PER_HOUR;
+			}
+			int n = all.size();
+			positions = all.toArray(new Pos[n]);
+			xs = new double[n];
+			ys = new double[n];
+			frameOf = new int[n];
+			for (int f=0; f<frames; f++) {
+				for (int idx=frameStart[f]; idx<frameStart[f+1]; idx++) {
+					xs[idx] = positions[idx].getX();
+					ys[idx] = positions[idx].getY();
+					frameOf[idx] = f;
+				}
+			}
+		}
+	}
+
+	/**
+	 * collects the votes of the pairs starting in the frames fromFrame..toFrame-1.
+	 */
+	private class VoteTask extends RecursiveTask<VoteMap> {
+		private static final long serialVersionUID = 1L;
+		private Spots spots;
+		private int fromFrame;
+		private int toFrame;
+		public VoteTask(Spots spots, int fromFrame, int toFrame) {
+			this.spots = spots;
+			this.fromFrame = fromFrame;
+			this.toFrame = toFrame;
+		}
+		@Override
+		protected VoteMap compute() {
+			if (toFrame-fromFrame <= 1) {
+				return vote();
+			}
+			int midFrame = (fromFrame+toFrame)/2;
+			VoteTask first = new VoteTask(spots, fromFrame, midFrame);
+			VoteTask second = new VoteTask(spots, midFrame, toFrame);
+			first.fork();
+			VoteMap result = second.compute();
+			result.addAll(first.join());
+			return result;
+		}
+		private VoteMap vote() {
+			VoteMap result = new VoteMap();
+			for (int a=fromFrame; a<toFrame; a++) {
+				for (int b=a+1; b<=Math.min(a+maxFrameGap, spots.frames-1); b++) {
+					double dt = spots.hours[b]-spots.hours[a];
+					if (dt <= 0) {
+						continue;
+					}
+					double maxDist = maxVelocity*dt;
+					for (int i=spots.frameStart[a]; i<spots.frameStart[a+1]; i++) {
+						double x = spots.xs[i];
+						double y = spots.ys[i];
+						for (int j:spots.grids[b].query(x-maxDist, y-maxDist, x+maxDist, y+maxDist)) {
+							int idx = spots.frameStart[b]+j;
+							double vx = (spots.xs[idx]-x)/dt;
+							double vy = (spots.ys[idx]-y)/dt;
+							if (vx*vx+vy*vy > maxVelocity*maxVelocity) {
+								continue;
+							}
+							double t = spots.hours[a];
+							result.increment(encode(vx, vy, x-vx*t, y-vy*t));
+						}
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * open addressing hash map from cell key to vote count.
+	 */
+	private static class VoteMap {
+		private long[] keys = new long[1024];
+		private int[] counts = new int[1024];
+		private int size;
+
+		public void increment(long key) {
+			add(key, 1);
+		}
+
+		public void add(long key, int count) {
+			int mask = keys.length-1;
+			int slot = hash(key) & mask;
+			while (counts[slot] != 0 && keys[slot] != key) {
+				slot = (slot+1) & mask;
+			}
+			if (counts[slot] == 0) {
+				keys[slot] = key;
+				size++;
+			}
+			counts[slot] += count;
+			if (2*size > keys.length) {
+				grow();
+			}
+		}
+
+		public void addAll(VoteMap other) {
+			for (int slot=0; slot<other.keys.length; slot++) {
+				if (other.counts[slot] != 0) {
+					add(other.keys[slot], other.counts[slot]);
+				}
+			}
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldCounts = counts;
+			keys = new long[2*oldKeys.length];
+			counts = new int[2*oldKeys.length];
+			size = 0;
+			for (int slot=0; slot<oldKeys.length; slot++) {
+				if (oldCounts[slot] != 0) {
+					add(oldKeys[slot], oldCounts[slot]);
+				}
+			}
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int)(h ^ (h >>> 32));
+		}
+
+		/**
+		 * keys of the cells with at least minVotes votes, most votes first.
+		 */
+		public long[] getPeaks(int minVotes, int maxPeaks) {
+			// sort (votes, slot) pairs
+			long[] result = new long[size];
+			int count = 0;
+			for (int slot=0; slot<keys.length; slot++) {
+				if (counts[slot] >= minVotes) {
+					result[count++] = ((long)counts[slot] << 32) | slot;
+				}
+			}
+			Arrays.sort(result, 0, count);
+			int n = Math.min(count, maxPeaks);
+			long[] peaks = new long[n];
+			for (int i=0; i<n; i++) {
+				peaks[i] = keys[(int)result[count-1-i]];
+			}
+			return peaks;
+		}
+	}
+
+}
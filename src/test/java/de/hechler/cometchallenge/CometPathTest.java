@@ -0,0 +1,156 @@
+package de.hechler.cometchallenge;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.cometchallenge.geometry.Pos;
+
+class CometPathTest {
+
+	private static final double MILLIS_PER_HOUR = 3600000.0;
+	private static final long START = 1041379200000L;
+
+	@Test
+	void testFitAgainstDirectFit() {
+		Random random = new Random(4711);
+		for (int n=0; n<2000; n++) {
+			CometPath cometPath = createRandomPath(random, 2+random.nextInt(30));
+			int len = cometPath.getLength();
+			// least squares with the centered sums
+			double meanT = 0;
+			double meanX = 0;
+			double meanY = 0;
+			for (int i=0; i<len; i++) {
+				meanT += hours(cometPath.getCometPosition(i))/len;
+				meanX += cometPath.getCometPosition(i).getPosition().getX()/len;
+				meanY += cometPath.getCometPosition(i).getPosition().getY()/len;
+			}
+			double stt = 0;
+			double stx = 0;
+			double sty = 0;
+			for (int i=0; i<len; i++) {
+				double dt = hours(cometPath.getCometPosition(i))-meanT;
+				stt += dt*dt;
+				stx += dt*(cometPath.getCometPosition(i).getPosition().getX()-meanX);
+				sty += dt*(cometPath.getCometPosition(i).getPosition().getY()-meanY);
+			}
+			double vx = stx/stt;
+			double vy = sty/stt;
+			double fitError = 0;
+			for (int i=0; i<len; i++) {
+				CometPos cometPos = cometPath.getCometPosition(i);
+				double dt = hours(cometPos)-meanT;
+				Pos expected = new Pos(meanX+vx*dt, meanY+vy*dt);
+				fitError += expected.getSQDist(cometPos.getPosition())/len;
+				assertClose(expected.getX(), cometPath.getFittedPos(cometPos.getTimestamp()).getX());
+				assertClose(expected.getY(), cometPath.getFittedPos(cometPos.getTimestamp()).getY());
+			}
+			double[] velocity = cometPath.getFittedVelocity();
+			assertClose(vx, velocity[0]);
+			assertClose(vy, velocity[1]);
+			assertClose(fitError, cometPath.getFitError());
+		}
+	}
+
+	@Test
+	void testErrorsAgainstLoops() {
+		Random random = new Random(815);
+		for (int n=0; n<2000; n++) {
+			CometPath cometPath = createRandomPath(random, 1+random.nextInt(30));
+			int len = cometPath.getLength();
+			double distError = 0;
+			double lineError = 0;
+			if (len > 2) {
+				CometPos first = cometPath.getFirst();
+				CometPos last = cometPath.getLast();
+				double dx = last.getPosition().getX()-first.getPosition().getX();
+				double dy = last.getPosition().getY()-first.getPosition().getY();
+				// the second last position is not included
+				for (int i=1; i<len-2; i++) {
+					CometPos cometPos = cometPath.getCometPosition(i);
+					double f = (hours(cometPos)-hours(first))/(hours(last)-hours(first));
+					Pos expected = new Pos(first.getPosition().getX()+dx*f, first.getPosition().getY()+dy*f);
+					distError += expected.getSQDist(cometPos.getPosition());
+					lineError += cometPos.getPosition().getSQDistFromLine(first.getPosition(), last.getPosition());
+				}
+				distError /= len-2;
+				lineError /= len-2;
+			}
+			assertClose(distError, cometPath.getDistError());
+			assertClose(lineError, cometPath.getLineError());
+		}
+	}
+
+	@Test
+	void testExtensionErrorAgainstLoop() {
+		Random random = new Random(1234);
+		for (int n=0; n<2000; n++) {
+			CometPath cometPath = createRandomPath(random, 1+random.nextInt(30));
+			int len = cometPath.getLength();
+			double extensionError = 0;
+			for (int i=2; i<len; i++) {
+				// the expected position of the path up to position i-1
+				CometPos first = cometPath.getFirst();
+				CometPos previous = cometPath.getCometPosition(i-1);
+				CometPos cometPos = cometPath.getCometPosition(i);
+				double f = (hours(cometPos)-hours(first))/(hours(previous)-hours(first));
+				double ex = first.getPosition().getX()+(previous.getPosition().getX()-first.getPosition().getX())*f;
+				double ey = first.getPosition().getY()+(previous.getPosition().getY()-first.getPosition().getY())*f;
+				extensionError += new Pos(ex, ey).getSQDist(cometPos.getPosition());
+			}
+			if (len > 2) {
+				extensionError /= len-2;
+			}
+			assertClose(extensionError, cometPath.getExtensionError());
+			for (int i=0; i<len; i++) {
+				assertSame(cometPath.getCometPosition(len-1-i), cometPath.getCometPositionFromEnd(i));
+			}
+		}
+	}
+
+	@Test
+	void testCopyKeepsSums() {
+		Random random = new Random(42);
+		CometPath cometPath = createRandomPath(random, 6);
+		double fitError = cometPath.getFitError();
+		CometPath copy = new CometPath(cometPath);
+		copy.add(new Date(cometPath.getLast().getTimestamp().getTime()+3600000L), new Pos(0, 0));
+		assertEquals(6, cometPath.getLength());
+		assertEquals(7, copy.getLength());
+		assertEquals(fitError, cometPath.getFitError());
+	}
+
+	private static CometPath createRandomPath(Random random, int len) {
+		double vx = random.nextGaussian()*5;
+		double vy = random.nextGaussian()*5;
+		double x0 = random.nextDouble()*1024;
+		double y0 = random.nextDouble()*1024;
+		CometPath result = null;
+		long t = START;
+		for (int i=0; i<len; i++) {
+			t += 60000L*(10+random.nextInt(30));
+			double h = (t-START)/MILLIS_PER_HOUR;
+			Pos pos = new Pos(x0+vx*h+random.nextGaussian(), y0+vy*h+random.nextGaussian());
+			if (result == null) {
+				result = new CometPath(new Date(t), pos);
+			}
+			else {
+				result.add(new Date(t), pos);
+			}
+		}
+		return result;
+	}
+
+	private static double hours(CometPos cometPos) {
+		return (cometPos.getTimestamp().getTime()-START)/MILLIS_PER_HOUR;
+	}
+
+	private static void assertClose(double expected, double actual) {
+		assertEquals(expected, actual, 1e-9*(1+Math.abs(expected)));
+	}
+
+}
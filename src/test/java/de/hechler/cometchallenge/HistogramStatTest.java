@@ -0,0 +1,44 @@
+package de.hechler.cometchallenge;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class HistogramStatTest {
+
+	@Test
+	void testGetQuantil() {
+		Random random = new Random(4711);
+		HistogramStat hs = new HistogramStat();
+		MinMaxStat mms = new MinMaxStat();
+		for (int i=0; i<10001; i++) {
+			int value = random.nextInt(HistogramStat.BINS);
+			hs.update(value);
+			mms.update(value);
+		}
+		for (double percent:new double[] {0, 25, 50, 99.9, 100}) {
+			assertEquals(mms.getQuantil(percent), hs.getQuantil(percent));
+		}
+		assertEquals(mms.getMin(), hs.getMin());
+		assertEquals(mms.getMax(), hs.getMax());
+		assertTrue(Math.abs(mms.getSigma()-hs.getSigma())<0.001);
+	}
+
+	@Test
+	void testMerge() {
+		HistogramStat first = new HistogramStat();
+		first.update(12);
+		first.update(55);
+		HistogramStat second = new HistogramStat();
+		second.update(74);
+		second.update(79);
+		second.update(90);
+		first.update(second);
+		assertEquals(5, first.getCount());
+		assertEquals(74, first.getQuantil(50));
+		assertTrue(Math.abs(first.getSigma()-27.444)<0.001);
+	}
+
+}
@@ -0,0 +1,34 @@
+package de.hechler.cometchallenge;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class MinMaxCounterTest {
+
+	@Test
+	void testLargeTotal() {
+		MinMaxCounter mmc = MinMaxCounter.of(IntStream.range(0, 1024*1024).map(i -> 65535));
+		assertEquals(1024L*1024*65535, mmc.getTotal());
+		assertEquals(65535, mmc.getAvg());
+	}
+
+	@Test
+	void testParallelStream() {
+		Random random = new Random(4711);
+		int[] values = random.ints(100000, 0, 65536).toArray();
+		MinMaxCounter sequential = MinMaxCounter.of(IntStream.of(values));
+		MinMaxCounter parallel = MinMaxCounter.of(IntStream.of(values).parallel());
+		MinMaxCounter collected = IntStream.of(values).boxed().parallel().collect(MinMaxCounter.collector());
+		for (MinMaxCounter mmc:new MinMaxCounter[] {parallel, collected}) {
+			assertEquals(sequential.getCount(), mmc.getCount());
+			assertEquals(sequential.getMin(), mmc.getMin());
+			assertEquals(sequential.getMax(), mmc.getMax());
+			assertEquals(sequential.getTotal(), mmc.getTotal());
+		}
+	}
+
+}
@@ -2,6 +2,10 @@ package de.hechler.cometchallenge;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
 import org.junit.jupiter.api.Test;
 
 class MinMaxStatTest {
@@ -28,4 +32,81 @@ class MinMaxStatTest {
 		assertTrue(Math.abs(mms.getStdErr()-12.273)<0.001);
 	}
 
+	@Test
+	void testGetQuantil() {
+		Random random = new Random(4711);
+		double[] values = new double[1001];
+		MinMaxStat mms = new MinMaxStat();
+		for (int i=0; i<values.length; i++) {
+			values[i] = random.nextInt(100);
+			mms.update(values[i]);
+		}
+		Arrays.sort(values);
+		for (double percent:new double[] {0, 25, 50, 99.9, 100, 25}) {
+			assertEquals(values[(int)(0.01*percent*(values.length-1))], mms.getQuantil(percent));
+		}
+	}
+
+	@Test
+	void testMerge() {
+		MinMaxStat first = new MinMaxStat();
+		first.update(12);
+		first.update(55);
+		MinMaxStat second = new MinMaxStat();
+		second.update(74);
+		second.update(79);
+		second.update(90);
+		first.update(second);
+		assertTrue(Math.abs(first.getSigma()-27.444)<0.001);
+		assertTrue(Math.abs(first.getStdErr()-12.273)<0.001);
+		assertEquals(12, first.getMin());
+		assertEquals(90, first.getMax());
+		assertEquals(5, first.getCount());
+		assertEquals(74, first.getQuantil(50));
+	}
+
+	@Test
+	void testMergeEmptyStreaming() {
+		MinMaxStat mms = new MinMaxStat();
+		mms.update(12);
+		mms.update(55);
+		mms.update(MinMaxStat.createStreaming(50));
+		assertEquals(2, mms.getCount());
+		assertEquals(12, mms.getMin());
+		assertEquals(55, mms.getMax());
+		assertEquals(12, mms.getQuantil(50));
+		MinMaxStat empty = new MinMaxStat();
+		empty.update(MinMaxStat.createStreaming(50));
+		assertEquals(0, empty.getCount());
+	}
+
+	@Test
+	void testStreamingQuantil() {
+		Random random = new Random(4711);
+		MinMaxStat mms = MinMaxStat.createStreaming(25, 50);
+		for (int i=0; i<100000; i++) {
+			mms.update(random.nextDouble()*1000);
+		}
+		assertTrue(Math.abs(mms.getQuantil(25)-250)<10);
+		assertTrue(Math.abs(mms.getQuantil(50)-500)<10);
+		assertTrue(Math.abs(mms.getAvg()-500)<10);
+	}
+
+	@Test
+	void testParallelStream() {
+		Random random = new Random(4711);
+		double[] values = random.doubles(100000, 0, 65536).toArray();
+		MinMaxStat sequential = MinMaxStat.of(Arrays.stream(values));
+		MinMaxStat parallel = MinMaxStat.of(Arrays.stream(values).parallel());
+		MinMaxStat collected = IntStream.range(0, values.length).parallel().mapToObj(i -> values[i]).collect(MinMaxStat.collector());
+		for (MinMaxStat mms:new MinMaxStat[] {parallel, collected}) {
+			assertEquals(sequential.getCount(), mms.getCount());
+			assertEquals(sequential.getMin(), mms.getMin());
+			assertEquals(sequential.getMax(), mms.getMax());
+			assertEquals(sequential.getQuantil(25), mms.getQuantil(25));
+			assertEquals(sequential.getQuantil(50), mms.getQuantil(50));
+			assertEquals(sequential.getSigma(), mms.getSigma(), 1e-6);
+		}
+	}
+
 }
@@ -0,0 +1,87 @@
+package de.hechler.cometchallenge.analyze;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.cometchallenge.geometry.Pos;
+
+class SpotClustererTest {
+
+	@Test
+	void testChain() {
+		List<Pos> centers = Arrays.asList(new Pos(10, 10), new Pos(50, 50), new Pos(12, 11), new Pos(14, 12));
+		List<Pos> result = SpotClusterer.concentrate(centers, 3.0);
+		// cnt/2 is added to the sums before the division, a leftover of the former integer average
+		assertEquals(Arrays.asList(new Pos((36+1)/3.0, (33+1)/3.0), new Pos(50, 50)), result);
+	}
+
+	@Test
+	void testRandomAgainstPairwise() {
+		Random random = new Random(4711);
+		for (int n=0; n<300; n++) {
+			int count = random.nextInt(200);
+			int size = 20+random.nextInt(200);
+			double mhDist = 1+random.nextInt(6);
+			List<Pos> centers = new ArrayList<>();
+			for (int i=0; i<count; i++) {
+				centers.add(new Pos(random.nextInt(size), random.nextInt(size)));
+			}
+			assertEquals(concentratePairwise(centers, mhDist), SpotClusterer.concentrate(centers, mhDist), "set "+n);
+		}
+	}
+
+	/**
+	 * clusters by comparing all pairs until no cluster changes, averages like SpotClusterer.
+	 */
+	private static List<Pos> concentratePairwise(List<Pos> centers, double mhDist) {
+		List<Pos> points = new ArrayList<>(new LinkedHashSet<>(centers));
+		int n = points.size();
+		int[] cluster = new int[n];
+		for (int i=0; i<n; i++) {
+			cluster[i] = i;
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i=0; i<n; i++) {
+				for (int j=0; j<n; j++) {
+					Pos a = points.get(i);
+					Pos b = points.get(j);
+					if (cluster[j] < cluster[i] && Math.abs(a.getX()-b.getX())+Math.abs(a.getY()-b.getY()) <= mhDist) {
+						cluster[i] = cluster[j];
+						changed = true;
+					}
+				}
+			}
+		}
+		Set<Pos> result = new LinkedHashSet<>();
+		boolean[] added = new boolean[n];
+		for (int i=0; i<n; i++) {
+			if (added[cluster[i]]) {
+				continue;
+			}
+			added[cluster[i]] = true;
+			double sumX = 0;
+			double sumY = 0;
+			int cnt = 0;
+			for (int j=0; j<n; j++) {
+				if (cluster[j] == cluster[i]) {
+					sumX += points.get(j).getX();
+					sumY += points.get(j).getY();
+					cnt++;
+				}
+			}
+			result.add(cnt == 1 ? points.get(i) : new Pos((sumX+cnt/2)/cnt, (sumY+cnt/2)/cnt));
+		}
+		return new ArrayList<>(result);
+	}
+
+}
@@ -0,0 +1,151 @@
+package de.hechler.cometchallenge.fits;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.hechler.cometchallenge.image.GrayFrame;
+import ij.ImagePlus;
+import ij.plugin.FITS_Reader;
+import ij.process.ShortProcessor;
+
+class FitsReaderTest {
+
+	/** the ImageJ chain only handled square frames, which is what LASCO provides */
+	private static final int SIZE = 6;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testSameAsImageJ() throws IOException {
+		Path path = writeFixture("bzero.fts", true);
+		GrayFrame frame = FitsReader.read(path).getFrame();
+		int[][] expected = readWithImageJ(path);
+		for (int y=0; y<SIZE; y++) {
+			for (int x=0; x<SIZE; x++) {
+				assertEquals(expected[y][x], frame.get(x, y), "x="+x+" y="+y);
+			}
+		}
+	}
+
+	@Test
+	void testRowOrderAndBZero() throws IOException {
+		GrayFrame frame = FitsReader.read(writeFixture("bzero.fts", true)).getFrame();
+		// the first row of the file is row 0
+		assertEquals(32768+getRaw(0, 0), frame.get(0, 0));
+		assertEquals(32768+getRaw(SIZE-1, SIZE-1), frame.get(SIZE-1, SIZE-1));
+		assertEquals(32768+getRaw(2, 4), frame.get(2, 4));
+	}
+
+	@Test
+	void testWithoutBZero() throws IOException {
+		GrayFrame frame = FitsReader.read(writeFixture("raw.fts", false)).getFrame();
+		for (int y=0; y<SIZE; y++) {
+			for (int x=0; x<SIZE; x++) {
+				// physical values, negative values are clipped
+				assertEquals(Math.max(0, getRaw(x, y)), frame.get(x, y), "x="+x+" y="+y);
+			}
+		}
+	}
+
+	@Test
+	void testHeader() throws IOException {
+		FitsHeader header = FitsReader.read(writeFixture("bzero.fts", true)).getHeader();
+		assertEquals(SIZE, header.getInt("NAXIS1"));
+		assertEquals(16, header.getInt("BITPIX"));
+		assertEquals(32768.0, header.getDouble("BZERO"));
+		assertEquals(25.0, header.getDouble("EXPTIME"));
+		assertEquals("2003/01/01", header.getString("DATE-OBS"));
+		assertEquals("it's", header.getString("COMMENT1"));
+		assertFalse(header.hasKeyword("HISTORY"));
+		assertTrue(header.getText().startsWith("SIMPLE  ="));
+	}
+
+	@Test
+	void testIsComplete() throws IOException {
+		Path path = writeFixture("bzero.fts", true);
+		assertTrue(FitsReader.isComplete(path));
+		byte[] data = Files.readAllBytes(path);
+		Path truncated = tempDir.resolve("truncated.fts");
+		Files.write(truncated, Arrays.copyOf(data, FitsHeader.BLOCK_LENGTH+10));
+		assertFalse(FitsReader.isComplete(truncated));
+		Files.write(truncated, Arrays.copyOf(data, FitsHeader.CARD_LENGTH*3));
+		assertFalse(FitsReader.isComplete(truncated));
+		assertFalse(FitsReader.isComplete(tempDir.resolve("missing.fts")));
+	}
+
+	/**
+	 * the former SequenceAnalyzer.readRawGrayscale(), ImageJ flips the rows.
+	 */
+	private static int[][] readWithImageJ(Path path) {
+		FITS_Reader reader = new FITS_Reader();
+		reader.run(path.toString());
+		ImagePlus imp = (ImagePlus)reader;
+		ShortProcessor shortProc = (ShortProcessor)imp.getProcessor().convertToShort(false);
+		DataBuffer dataBuffer = shortProc.get16BitBufferedImage().getData().getDataBuffer();
+		int w = imp.getWidth();
+		int h = imp.getHeight();
+		int[][] matrix = new int[h][w];
+		for (int y = 0; y<h; y++) {
+			for (int x = 0; x<w; x++) {
+				matrix[h-1-y][x] = dataBuffer.getElem(h*y+x);
+			}
+		}
+		return matrix;
+	}
+
+	private static int getRaw(int x, int y) {
+		return y*1000 + x*10 - 2500;
+	}
+
+	private Path writeFixture(String filename, boolean bzero) throws IOException {
+		StringBuilder header = new StringBuilder();
+		addCard(header, "SIMPLE  =                    T");
+		addCard(header, "BITPIX  =                   16");
+		addCard(header, "NAXIS   =                    2");
+		addCard(header, String.format("NAXIS1  = %20d", SIZE));
+		addCard(header, String.format("NAXIS2  = %20d", SIZE));
+		if (bzero) {
+			addCard(header, "BZERO   =              32768.0 / offset for unsigned values");
+		}
+		addCard(header, "EXPTIME =              2.5D+01 / exposure time");
+		addCard(header, "DATE-OBS= '2003/01/01'         / date");
+		addCard(header, "COMMENT1= 'it''s'");
+		addCard(header, "HISTORY a card without value");
+		addCard(header, "END");
+		while (header.length() % FitsHeader.BLOCK_LENGTH != 0) {
+			header.append(' ');
+		}
+		int dataLength = 2*SIZE*SIZE;
+		ByteBuffer data = ByteBuffer.allocate((dataLength+FitsHeader.BLOCK_LENGTH-1)/FitsHeader.BLOCK_LENGTH*FitsHeader.BLOCK_LENGTH);
+		data.order(ByteOrder.BIG_ENDIAN);
+		for (int y=0; y<SIZE; y++) {
+			for (int x=0; x<SIZE; x++) {
+				data.putShort((short)getRaw(x, y));
+			}
+		}
+		Path result = tempDir.resolve(filename);
+		try (OutputStream out = Files.newOutputStream(result)) {
+			out.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+			out.write(data.array());
+		}
+		return result;
+	}
+
+	private static void addCard(StringBuilder header, String card) {
+		header.append(String.format("%-80s", card));
+	}
+
+}
@@ -0,0 +1,31 @@
+package de.hechler.cometchallenge.image;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class GrayFrameTest {
+
+	@Test
+	void testClip() {
+		assertEquals(0, GrayFrame.clip(-1));
+		assertEquals(0, GrayFrame.clip(-32768));
+		assertEquals(0, GrayFrame.clip(0));
+		assertEquals(1234, GrayFrame.clip(1234));
+		assertEquals(GrayFrame.MAX_VALUE, GrayFrame.clip(GrayFrame.MAX_VALUE));
+		assertEquals(GrayFrame.MAX_VALUE, GrayFrame.clip(70000));
+	}
+
+	@Test
+	void testNegativeSample() {
+		GrayFrame frame = new GrayFrame(3, 3);
+		frame.set(1, 1, 100);
+		frame.set(0, 0, -5);
+		frame.updateBorder();
+		assertEquals(0, frame.get(0, 0));
+		// the clipped value is replicated into the border
+		assertEquals(0, frame.get(-1, -1));
+		assertEquals(100, frame.get(1, 1));
+	}
+
+}
@@ -0,0 +1,91 @@
+package de.hechler.cometchallenge.image;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SlidingWindowFilterTest {
+
+	@Test
+	void testRandomFrame() {
+		Random random = new Random(4711);
+		// sizes which are no multiples of the window size, so the last block of each row is partial
+		GrayFrame frame = new GrayFrame(37, 23);
+		for (int y=0; y<frame.getHeight(); y++) {
+			for (int x=0; x<frame.getWidth(); x++) {
+				frame.set(x, y, random.nextInt(GrayFrame.MAX_VALUE+1));
+			}
+		}
+		frame.updateBorder();
+		int rows = frame.getPixels().length/frame.getStride();
+		for (int radius=0; radius<=frame.getBorder(); radius++) {
+			checkFilters(frame.getPixels(), frame.getStride(), rows, radius);
+		}
+	}
+
+	@Test
+	void testRandomPlane() {
+		// without a replicated border the apron edges have values of their own
+		Random random = new Random(815);
+		for (int n=0; n<20; n++) {
+			int stride = 1+random.nextInt(40);
+			int rows = 1+random.nextInt(40);
+			char[] plane = new char[stride*rows];
+			for (int i=0; i<plane.length; i++) {
+				plane[i] = (char)random.nextInt(GrayFrame.MAX_VALUE+1);
+			}
+			for (int radius=0; radius<=7; radius++) {
+				checkFilters(plane, stride, rows, radius);
+			}
+		}
+	}
+
+	/**
+	 * compare the filters with a brute force scan of the window at every position where the window lies inside the plane.
+	 */
+	private static void checkFilters(char[] plane, int stride, int rows, int radius) {
+		char[] hMin = SlidingWindowFilter.horizontalMin(plane, stride, rows, radius);
+		char[] hMax = SlidingWindowFilter.horizontalMax(plane, stride, rows, radius);
+		int[] hSum = SlidingWindowFilter.horizontalSum(plane, stride, rows, radius);
+		for (int r=0; r<rows; r++) {
+			for (int c=radius; c<stride-radius; c++) {
+				int min = Integer.MAX_VALUE;
+				int max = Integer.MIN_VALUE;
+				int sum = 0;
+				for (int d=-radius; d<=radius; d++) {
+					int value = plane[r*stride+c+d];
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+					sum += value;
+				}
+				String where = "row "+r+" col "+c+" radius "+radius;
+				assertEquals(min, hMin[r*stride+c], where);
+				assertEquals(max, hMax[r*stride+c], where);
+				assertEquals(sum, hSum[r*stride+c], where);
+			}
+		}
+		char[] vMin = SlidingWindowFilter.verticalMin(plane, stride, rows, radius);
+		char[] vMax = SlidingWindowFilter.verticalMax(plane, stride, rows, radius);
+		int[] vSum = SlidingWindowFilter.verticalSum(plane, stride, rows, radius);
+		for (int r=radius; r<rows-radius; r++) {
+			for (int c=0; c<stride; c++) {
+				int min = Integer.MAX_VALUE;
+				int max = Integer.MIN_VALUE;
+				int sum = 0;
+				for (int d=-radius; d<=radius; d++) {
+					int value = plane[(r+d)*stride+c];
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+					sum += value;
+				}
+				String where = "row "+r+" col "+c+" radius "+radius;
+				assertEquals(min, vMin[r*stride+c], where);
+				assertEquals(max, vMax[r*stride+c], where);
+				assertEquals(sum, vSum[r*stride+c], where);
+			}
+		}
+	}
+
+}
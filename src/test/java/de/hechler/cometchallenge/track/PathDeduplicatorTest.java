@@ -0,0 +1,69 @@
+package de.hechler.cometchallenge.track;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.hechler.cometchallenge.CometPath;
+import de.hechler.cometchallenge.geometry.Pos;
+
+class PathDeduplicatorTest {
+
+	private static final long MILLIS_PER_HOUR = 3600000L;
+
+	@Test
+	void testLateNoisyDuplicates() {
+		// an early path far away sets the earliest timestamp of the sequence
+		CometPath early = createPath(0, 6, 100, 100, 5, 0, new double[6]);
+		// the same trajectory starting 30 hours later, the noise tilts the fitted velocities in opposite directions
+		double[] noise = { -0.6, -0.3, 0, 0.3, 0.6 };
+		double[] reversed = { 0.6, 0.3, 0, -0.3, -0.6 };
+		CometPath late1 = createPath(30, 5, 500, 500, 3, -2, noise);
+		CometPath late2 = createPath(30, 5, 500, 500, 3, -2, reversed);
+		List<CometPath> result = PathDeduplicator.suppressDuplicates(Arrays.asList(early, late1, late2));
+		assertEquals(2, result.size());
+		assertSame(early, result.get(0));
+	}
+
+	@Test
+	void testParallelPathsAreKept() {
+		CometPath first = createPath(0, 5, 500, 500, 3, -2, new double[5]);
+		CometPath second = createPath(0, 5, 510, 500, 3, -2, new double[5]);
+		assertEquals(2, PathDeduplicator.suppressDuplicates(Arrays.asList(first, second)).size());
+	}
+
+	@Test
+	void testDuplicatesInNeighbouringPositionCells() {
+		// the fitted positions lie on both sides of a cell border
+		CometPath first = createPath(0, 5, 31.5, 500, 0, 0, new double[5]);
+		CometPath second = createPath(0, 5, 32.5, 500, 0, 0, new double[5]);
+		assertEquals(1, PathDeduplicator.suppressDuplicates(Arrays.asList(first, second)).size());
+	}
+
+	@Test
+	void testDistantPathsAreKept() {
+		CometPath first = createPath(0, 5, 100, 100, 3, -2, new double[5]);
+		CometPath second = createPath(0, 5, 800, 700, 3, -2, new double[5]);
+		assertEquals(2, PathDeduplicator.suppressDuplicates(Arrays.asList(first, second)).size());
+	}
+
+	private static CometPath createPath(int startHour, int length, double x, double y, double vx, double vy, double[] noise) {
+		CometPath result = null;
+		for (int i=0; i<length; i++) {
+			Date timestamp = new Date((startHour+i)*MILLIS_PER_HOUR);
+			Pos pos = new Pos(x+vx*i+noise[i], y+vy*i+noise[i]);
+			if (result == null) {
+				result = new CometPath(timestamp, pos);
+			}
+			else {
+				result.add(timestamp, pos);
+			}
+		}
+		return result;
+	}
+
+}